@@ -22,18 +22,12 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Color;
-import android.graphics.ColorMatrix;
-import android.graphics.ColorMatrixColorFilter;
 import android.graphics.Paint;
 import android.graphics.Rect;
 import android.graphics.Typeface;
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.Message;
-import android.support.v7.graphics.Palette;
 import android.support.wearable.watchface.CanvasWatchFaceService;
 import android.support.wearable.watchface.WatchFaceService;
 import android.support.wearable.watchface.WatchFaceStyle;
@@ -41,13 +35,25 @@ import android.util.Log;
 import android.util.TypedValue;
 import android.view.SurfaceHolder;
 
-
-import java.lang.ref.WeakReference;
-import java.text.SimpleDateFormat;
+import com.amber.wear.watchface.common.BitmapLoader;
+import com.amber.wear.watchface.common.BitmapPool;
+import com.amber.wear.watchface.common.CalendarFormatter;
+import com.amber.wear.watchface.common.FrameBenchmark;
+import com.amber.wear.watchface.common.FrameMetrics;
+import com.amber.wear.watchface.common.GlyphAtlas;
+import com.amber.wear.watchface.common.HandSprite;
+import com.amber.wear.watchface.common.PaletteCache;
+import com.amber.wear.watchface.common.RedrawScheduler;
+import com.amber.wear.watchface.common.StartupTrace;
+import com.amber.wear.watchface.common.TextBuffer;
+import com.amber.wear.watchface.common.TieredResources;
+import com.amber.wear.watchface.common.TypefaceRegistry;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.Calendar;
 import java.util.Locale;
 import java.util.TimeZone;
-import java.util.concurrent.TimeUnit;
 
 /**
  * Analog watch face with a ticking second hand. In ambient mode, the second hand isn't
@@ -55,24 +61,44 @@ import java.util.concurrent.TimeUnit;
  * mode. The watch face is drawn with less contrast in mute mode.
  */
 public class MyWatchFace extends CanvasWatchFaceService {
+    private final FrameMetrics mFrameMetrics = new FrameMetrics("blues");
+    /* The engine created last, for the redraw counts in the dump. */
+    private volatile Engine mEngine;
 
-    /*
-     * Update rate in milliseconds for interactive mode. We update once a second to advance the
-     * second hand.
-     */
-    private static final long INTERACTIVE_UPDATE_RATE_MS = TimeUnit.SECONDS.toMillis(1);
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mFrameMetrics.registerDumpReceiver(this);
+    }
 
-    /**
-     * Handler message id for updating the time periodically in interactive mode.
-     */
-    private static final int MSG_UPDATE_TIME = 0;
+    @Override
+    public void onDestroy() {
+        mFrameMetrics.unregisterDumpReceiver(this);
+        super.onDestroy();
+    }
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(fd, writer, args);
+        mFrameMetrics.dump(writer);
+        Engine engine = mEngine;
+        if (engine != null) {
+            engine.mRedrawScheduler.dump(writer);
+        }
+        BitmapPool.getInstance().dump(writer);
+        TypefaceRegistry.dump(writer);
+        TieredResources.dumpAll(writer);
+        StartupTrace.dump(this, "blues", writer, args);
+    }
 
     @Override
     public Engine onCreateEngine() {
-        return new Engine();
+        mEngine = new Engine();
+        return mEngine;
     }
 
-    private class Engine extends CanvasWatchFaceService.Engine {
+    private class Engine extends CanvasWatchFaceService.Engine implements RedrawScheduler.Client,
+            FrameBenchmark.Target, TieredResources.Client {
         private boolean isRound;
         private static final float HOUR_STROKE_WIDTH = 5f;
         private static final float MINUTE_STROKE_WIDTH = 3f;
@@ -83,13 +109,14 @@ public class MyWatchFace extends CanvasWatchFaceService {
         private static final int SHADOW_RADIUS = 6;
 
         private Calendar mCalendar;
-        private SimpleDateFormat mMonthFormat;
-        private SimpleDateFormat mDayFormat;
-        private SimpleDateFormat mAmPmFormat;
-        private SimpleDateFormat mWeekFormat;
-        private SimpleDateFormat mDateFormat;
+        private CalendarFormatter mFormatter;
+        /* "MMM dd" */
+        private final TextBuffer mDateText = new TextBuffer(40);
         private boolean mRegisteredTimeZoneReceiver = false;
         private boolean mMuteMode;
+        private BroadcastReceiver mBenchmarkReceiver;
+        /* Background palette still being computed; cancelled with the engine. */
+        private PaletteCache.Request mPaletteRequest;
 
         private float mCenterX;
         private float mCenterY;
@@ -122,6 +149,25 @@ public class MyWatchFace extends CanvasWatchFaceService {
 
         private Rect rect;
 
+        /*
+         * The characters of the current locale pre-rendered per text paint. The atlases are
+         * rebuilt whenever a paint's style or the locale changes.
+         */
+        private GlyphAtlas mHourAtlas;
+        private GlyphAtlas mMinuteAtlas;
+        private GlyphAtlas mAmPmAtlas;
+        private GlyphAtlas mWeekAtlas;
+        private GlyphAtlas mDateAtlas;
+
+        /*
+         * The hands with their shadows baked in, drawn in interactive mode. Rebaked when a hand's
+         * color or length changes; ambient mode draws plain lines without shadows.
+         */
+        private HandSprite mHourSprite;
+        private HandSprite mMinuteSprite;
+        private HandSprite mSecondSprite;
+        private final Paint mHandSpritePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
 
         private Paint mBackgroundPaint;
 
@@ -145,13 +191,27 @@ public class MyWatchFace extends CanvasWatchFaceService {
         private final BroadcastReceiver mTimeZoneReceiver = new BroadcastReceiver() {
             @Override
             public void onReceive(Context context, Intent intent) {
-                mCalendar.setTimeZone(TimeZone.getDefault());
+                if (Intent.ACTION_LOCALE_CHANGED.equals(intent.getAction())) {
+                    mFormatter.setLocale(Locale.getDefault());
+                    updateGlyphAtlases();
+                } else {
+                    mCalendar.setTimeZone(TimeZone.getDefault());
+                    mFormatter.invalidate();
+                }
                 invalidate();
             }
         };
 
-        /* Handler to update the time once a second in interactive mode. */
-        private final Handler mUpdateTimeHandler = new EngineHandler(this);
+        /* Redraws when the next visible change is due in interactive mode. */
+        private final RedrawScheduler mRedrawScheduler = new RedrawScheduler(this);
+        /* Surface size the bitmaps were last loaded for. */
+        private int mSurfaceWidth;
+        private int mSurfaceHeight;
+        /* Surface width over the background drawable's width. */
+        private float mBitmapScale;
+        private TieredResources mResources;
+        /* Started as onCreateEngine constructs the engine. */
+        private final StartupTrace mStartupTrace = new StartupTrace(MyWatchFace.this, "blues");
 
         @Override
         public void onCreate(SurfaceHolder holder) {
@@ -166,12 +226,6 @@ public class MyWatchFace extends CanvasWatchFaceService {
 
             mBackgroundPaint = new Paint();
             mBackgroundPaint.setColor(Color.WHITE);
-            if (isRound){
-                mBackgroundBitmap = BitmapFactory.decodeResource(getResources(), R.drawable.bg);
-            }else{
-                mBackgroundBitmap = BitmapFactory.decodeResource(getResources(), R.drawable.sbg);
-            }
-            mBackgroundCenterBitmap = BitmapFactory.decodeResource(getResources(), R.drawable.bg_center);
 
 
             /* Set defaults for colors */
@@ -189,86 +243,222 @@ public class MyWatchFace extends CanvasWatchFaceService {
             mHourPaint.setStrokeWidth(HOUR_STROKE_WIDTH);
             mHourPaint.setAntiAlias(true);
             mHourPaint.setStrokeCap(Paint.Cap.ROUND);
-            mHourPaint.setShadowLayer(SHADOW_RADIUS, 0, 0, mWatchHandShadowColor);
 
             mMinutePaint = new Paint();
             mMinutePaint.setColor(mWatchHandColor);
             mMinutePaint.setStrokeWidth(MINUTE_STROKE_WIDTH);
             mMinutePaint.setAntiAlias(true);
             mMinutePaint.setStrokeCap(Paint.Cap.ROUND);
-            mMinutePaint.setShadowLayer(SHADOW_RADIUS, 0, 0, mWatchHandShadowColor);
 
             mSecondPaint = new Paint();
             mSecondPaint.setColor(mWatchHandHighlightColor);
             mSecondPaint.setStrokeWidth(SECOND_TICK_STROKE_WIDTH);
             mSecondPaint.setAntiAlias(true);
             mSecondPaint.setStrokeCap(Paint.Cap.ROUND);
-            mSecondPaint.setShadowLayer(SHADOW_RADIUS, 0, 0, mWatchHandShadowColor);
 
             mTickAndCirclePaint = new Paint();
             mTickAndCirclePaint.setColor(mWatchHandColor);
             mTickAndCirclePaint.setStrokeWidth(SECOND_TICK_STROKE_WIDTH);
             mTickAndCirclePaint.setAntiAlias(true);
             mTickAndCirclePaint.setStyle(Paint.Style.STROKE);
-            mTickAndCirclePaint.setShadowLayer(SHADOW_RADIUS, 0, 0, mWatchHandShadowColor);
+
+            mStartupTrace.begin(StartupTrace.PHASE_TYPEFACE);
+            Typeface typeface = TypefaceRegistry.get(getAssets(),
+                    "Helvetica Rounded LT Bold Condensed.ttf");
+            mStartupTrace.end(StartupTrace.PHASE_TYPEFACE);
 
             mTextHourPaint = new Paint();
             mTextHourPaint.setColor(mTextHourColor);
             mTextHourPaint.setAntiAlias(true);
             mTextHourPaint.setTextAlign(Paint.Align.LEFT);
             mTextHourPaint.setTextSize(dp2px(30));
-            mTextHourPaint.setTypeface(Typeface.createFromAsset(getResources().getAssets(), "Helvetica Rounded LT Bold Condensed.ttf"));
+            mTextHourPaint.setTypeface(typeface);
 
             mTextMinutePaint = new Paint();
             mTextMinutePaint.setColor(mTextMinuteColor);
             mTextMinutePaint.setAntiAlias(true);
             mTextMinutePaint.setTextAlign(Paint.Align.LEFT);
             mTextMinutePaint.setTextSize(dp2px(15));
-            mTextMinutePaint.setTypeface(Typeface.createFromAsset(getResources().getAssets(), "Helvetica Rounded LT Bold Condensed.ttf"));
+            mTextMinutePaint.setTypeface(typeface);
 
             mTextAmPmPaint = new Paint();
             mTextAmPmPaint.setColor(mTextAmPmColor);
             mTextAmPmPaint.setAntiAlias(true);
             mTextAmPmPaint.setTextAlign(Paint.Align.LEFT);
             mTextAmPmPaint.setTextSize(dp2px(10));
-            mTextAmPmPaint.setTypeface(Typeface.createFromAsset(getResources().getAssets(), "Helvetica Rounded LT Bold Condensed.ttf"));
+            mTextAmPmPaint.setTypeface(typeface);
 
             mTextWeekPaint = new Paint();
             mTextWeekPaint.setColor(mTextWeekColor);
             mTextWeekPaint.setAntiAlias(true);
             mTextWeekPaint.setTextAlign(Paint.Align.LEFT);
             mTextWeekPaint.setTextSize(dp2px(10));
-            mTextWeekPaint.setTypeface(Typeface.createFromAsset(getResources().getAssets(), "Helvetica Rounded LT Bold Condensed.ttf"));
+            mTextWeekPaint.setTypeface(typeface);
 
             mTextDatePaint = new Paint();
             mTextDatePaint.setColor(mTextDateColor);
             mTextDatePaint.setAntiAlias(true);
             mTextDatePaint.setTextAlign(Paint.Align.LEFT);
             mTextDatePaint.setTextSize(dp2px(15));
-            mTextDatePaint.setTypeface(Typeface.createFromAsset(getResources().getAssets(), "Helvetica Rounded LT Bold Condensed.ttf"));
+            mTextDatePaint.setTypeface(typeface);
 
 
             rect = new Rect();
 
+            mCalendar = Calendar.getInstance();
+            mFormatter = new CalendarFormatter(Locale.getDefault(), true);
+            mStartupTrace.begin(StartupTrace.PHASE_SCALE);
+            updateGlyphAtlases();
+            mStartupTrace.end(StartupTrace.PHASE_SCALE);
+
             /* Extract colors from background image to improve watchface style. */
-            Palette.from(mBackgroundBitmap).generate(new Palette.PaletteAsyncListener() {
-                @Override
-                public void onGenerated(Palette palette) {
-                    if (palette != null) {
-//                        mWatchHandHighlightColor = palette.getVibrantColor(Color.RED);
-                        mWatchHandColor = palette.getLightVibrantColor(Color.WHITE);
-                        mWatchHandShadowColor = palette.getDarkMutedColor(Color.BLACK);
-                        updateWatchHandStyle();
+            mStartupTrace.begin(StartupTrace.PHASE_PALETTE);
+            mPaletteRequest = PaletteCache.load(MyWatchFace.this, isRound ? R.drawable.bg : R.drawable.sbg,
+                    new PaletteCache.Listener() {
+                        @Override
+                        public void onColors(PaletteCache.Colors colors) {
+                            mStartupTrace.end(StartupTrace.PHASE_PALETTE);
+                            int handColor = colors.getLightVibrantColor(Color.WHITE);
+                            int shadowColor = colors.getDarkMutedColor(Color.BLACK);
+                            if (handColor != mWatchHandColor
+                                    || shadowColor != mWatchHandShadowColor) {
+                                mWatchHandColor = handColor;
+                                mWatchHandShadowColor = shadowColor;
+                                updateWatchHandStyle();
+                                invalidate();
+                            }
+                        }
+                    });
+
+            mResources = new TieredResources(MyWatchFace.this, "blues", this);
+            mBenchmarkReceiver = FrameBenchmark.registerReceiver(MyWatchFace.this, "blues", this);
+        }
+
+        /**
+         * Takes the bitmaps of {@code tier} from the shared pool, scaled by {@link #mBitmapScale}.
+         * The center ring sizes the date in both modes, so it is always kept.
+         */
+        @Override
+        public long loadTier(int tier) {
+            BitmapPool pool = BitmapPool.getInstance();
+            float scale = mBitmapScale;
+            int backgroundId = isRound ? R.drawable.bg : R.drawable.sbg;
+            switch (tier) {
+                case TieredResources.TIER_ALWAYS:
+                    mBackgroundCenterBitmap = pool.acquireScaled(getResources(),
+                            R.drawable.bg_center, scale, false, BitmapPool.VARIANT_NORMAL);
+                    break;
+                case TieredResources.TIER_INTERACTIVE:
+                    mBackgroundBitmap = pool.acquireScaled(getResources(), backgroundId, scale,
+                            false, BitmapPool.VARIANT_NORMAL);
+                    break;
+                default:
+                    /*
+                     * The ambient versions come pre-converted from the build
+                     * (asset-pipeline.gradle): gray, or 1 bit for low-bit ambient screens. Burn-in
+                     * protection shifts pixels, which doesn't look nice on images going all the
+                     * way to the edges, so those get none.
+                     */
+                    if (!mBurnInProtection) {
+                        //灰色背景、灰色中部圈儿
+                        int variant = mLowBitAmbient
+                                ? BitmapPool.VARIANT_LOW_BIT : BitmapPool.VARIANT_GRAY;
+                        mGrayBackgroundBitmap = pool.acquireScaled(getResources(), backgroundId,
+                                scale, false, variant);
+                        mGrayBackgroundCenterBitmap = pool.acquireScaled(getResources(),
+                                R.drawable.bg_center, scale, false, variant);
                     }
+                    break;
+            }
+            return TieredResources.getByteCount(getTierBitmaps(tier));
+        }
+
+        @Override
+        public void releaseTier(int tier) {
+            for (Bitmap bitmap : getTierBitmaps(tier)) {
+                BitmapPool.getInstance().release(bitmap);
+            }
+            switch (tier) {
+                case TieredResources.TIER_ALWAYS:
+                    mBackgroundCenterBitmap = null;
+                    break;
+                case TieredResources.TIER_INTERACTIVE:
+                    mBackgroundBitmap = null;
+                    break;
+                default:
+                    mGrayBackgroundBitmap = null;
+                    mGrayBackgroundCenterBitmap = null;
+                    break;
+            }
+        }
+
+        private Bitmap[] getTierBitmaps(int tier) {
+            switch (tier) {
+                case TieredResources.TIER_ALWAYS:
+                    return new Bitmap[]{mBackgroundCenterBitmap};
+                case TieredResources.TIER_INTERACTIVE:
+                    return new Bitmap[]{mBackgroundBitmap};
+                default:
+                    return new Bitmap[]{mGrayBackgroundBitmap, mGrayBackgroundCenterBitmap};
+            }
+        }
+
+        /**
+         * Renders the text atlases with the current text paints, unless they already match.
+         */
+        private void updateGlyphAtlases() {
+            String digits = mFormatter.getDigits();
+            String chars = mFormatter.getChars();
+            mHourAtlas = updateGlyphAtlas(mHourAtlas, mTextHourPaint, digits);
+            mMinuteAtlas = updateGlyphAtlas(mMinuteAtlas, mTextMinutePaint, digits);
+            mAmPmAtlas = updateGlyphAtlas(mAmPmAtlas, mTextAmPmPaint, chars);
+            mWeekAtlas = updateGlyphAtlas(mWeekAtlas, mTextWeekPaint, chars);
+            mDateAtlas = updateGlyphAtlas(mDateAtlas, mTextDatePaint, chars + " ");
+        }
+
+        private GlyphAtlas updateGlyphAtlas(GlyphAtlas atlas, Paint paint, String chars) {
+            if (atlas != null) {
+                if (atlas.matches(paint, chars)) {
+                    return atlas;
                 }
-            });
+                atlas.recycle();
+            }
+            return GlyphAtlas.create(paint, chars);
+        }
 
-            mCalendar = Calendar.getInstance();
-            mMonthFormat = new SimpleDateFormat("hh",  Locale.getDefault());
-            mDayFormat = new SimpleDateFormat("mm",  Locale.getDefault());
-            mAmPmFormat = new SimpleDateFormat("a",  Locale.getDefault());
-            mWeekFormat = new SimpleDateFormat("E",  Locale.getDefault());
-            mDateFormat = new SimpleDateFormat("MMM dd",  Locale.getDefault());
+        /**
+         * Bakes the hands as the interactive paints draw them, unless the sprites already match.
+         */
+        private void updateHandSprites() {
+            if (sHourHandLength == 0) {
+                // lengths are set at the first surface change
+                return;
+            }
+            mHourSprite = updateHandSprite(mHourSprite, mHourPaint, sHourHandLength);
+            mMinuteSprite = updateHandSprite(mMinuteSprite, mMinutePaint, sMinuteHandLength);
+            mSecondSprite = updateHandSprite(mSecondSprite, mSecondPaint, mSecondHandLength);
+        }
+
+        private HandSprite updateHandSprite(HandSprite sprite, Paint paint, float handLength) {
+            float length = handLength - CENTER_GAP_AND_CIRCLE_RADIUS;
+            if (sprite != null) {
+                if (sprite.matches(paint, length, SHADOW_RADIUS, mWatchHandShadowColor)) {
+                    return sprite;
+                }
+                sprite.recycle();
+            }
+            return HandSprite.create(paint, length, SHADOW_RADIUS, mWatchHandShadowColor);
+        }
+
+        private void recycleHandSprites() {
+            if (mHourSprite != null) {
+                mHourSprite.recycle();
+                mMinuteSprite.recycle();
+                mSecondSprite.recycle();
+                mHourSprite = null;
+                mMinuteSprite = null;
+                mSecondSprite = null;
+            }
         }
 
         private float dp2px(float dp) {
@@ -277,7 +467,14 @@ public class MyWatchFace extends CanvasWatchFaceService {
 
         @Override
         public void onDestroy() {
-            mUpdateTimeHandler.removeMessages(MSG_UPDATE_TIME);
+            mRedrawScheduler.stop();
+            if (mEngine == this) {
+                mEngine = null;
+            }
+            FrameBenchmark.unregisterReceiver(MyWatchFace.this, this, mBenchmarkReceiver);
+            mPaletteRequest.cancel();
+            recycleHandSprites();
+            mResources.release();
             super.onDestroy();
         }
 
@@ -298,6 +495,7 @@ public class MyWatchFace extends CanvasWatchFaceService {
         public void onAmbientModeChanged(boolean inAmbientMode) {
             super.onAmbientModeChanged(inAmbientMode);
             mAmbient = inAmbientMode;
+            mResources.setAmbient(mAmbient);
             updateWatchHandStyle();
 
             mAmbient = inAmbientMode;
@@ -307,7 +505,7 @@ public class MyWatchFace extends CanvasWatchFaceService {
                 }
             }
             /* Check and trigger whether or not timer should be running (only in active mode). */
-            updateTimer();
+            mRedrawScheduler.update();
         }
 
         private void updateWatchHandStyle(){
@@ -331,13 +529,6 @@ public class MyWatchFace extends CanvasWatchFaceService {
                 mTextAmPmPaint.setAntiAlias(false);
                 mTextWeekPaint.setAntiAlias(false);
                 mTextDatePaint.setAntiAlias(false);
-
-
-                mHourPaint.clearShadowLayer();
-                mMinutePaint.clearShadowLayer();
-                mSecondPaint.clearShadowLayer();
-                mTickAndCirclePaint.clearShadowLayer();
-
             } else {
                 mHourPaint.setColor(mWatchHandColor);
                 mMinutePaint.setColor(mWatchHandColor);
@@ -359,10 +550,10 @@ public class MyWatchFace extends CanvasWatchFaceService {
                 mTextWeekPaint.setAntiAlias(true);
                 mTextDatePaint.setAntiAlias(true);
 
-                mHourPaint.setShadowLayer(SHADOW_RADIUS, 0, 0, mWatchHandShadowColor);
-                mMinutePaint.setShadowLayer(SHADOW_RADIUS, 0, 0, mWatchHandShadowColor);
-                mSecondPaint.setShadowLayer(SHADOW_RADIUS, 0, 0, mWatchHandShadowColor);
-                mTickAndCirclePaint.setShadowLayer(SHADOW_RADIUS, 0, 0, mWatchHandShadowColor);
+                updateHandSprites();
+            }
+            if (mFormatter != null) {
+                updateGlyphAtlases();
             }
         }
 
@@ -373,21 +564,40 @@ public class MyWatchFace extends CanvasWatchFaceService {
 
             /* Dim display in mute mode. */
             if (mMuteMode != inMuteMode) {
-                mMuteMode = inMuteMode;
-                mHourPaint.setAlpha(inMuteMode ? 100 : 255);
-                mMinutePaint.setAlpha(inMuteMode ? 100 : 255);
-                mSecondPaint.setAlpha(inMuteMode ? 80 : 255);
-                mTextHourPaint.setAlpha(inMuteMode ? 100 : 255);
-                mTextMinutePaint.setAlpha(inMuteMode ? 100 : 255);
-                mTextAmPmPaint.setAlpha(inMuteMode ? 80 : 255);
-                mTextWeekPaint.setAlpha(inMuteMode ? 80 : 255);
+                setMuteMode(inMuteMode);
                 invalidate();
             }
         }
 
+        private void setMuteMode(boolean inMuteMode) {
+            mMuteMode = inMuteMode;
+            mHourPaint.setAlpha(inMuteMode ? 100 : 255);
+            mMinutePaint.setAlpha(inMuteMode ? 100 : 255);
+            mSecondPaint.setAlpha(inMuteMode ? 80 : 255);
+            mTextHourPaint.setAlpha(inMuteMode ? 100 : 255);
+            mTextMinutePaint.setAlpha(inMuteMode ? 100 : 255);
+            mTextAmPmPaint.setAlpha(inMuteMode ? 80 : 255);
+            mTextWeekPaint.setAlpha(inMuteMode ? 80 : 255);
+            updateGlyphAtlases();
+        }
+
         @Override
         public void onSurfaceChanged(SurfaceHolder holder, int format, int width, int height) {
             super.onSurfaceChanged(holder, format, width, height);
+            if (width == mSurfaceWidth && height == mSurfaceHeight
+                    && mResources.isLoaded(TieredResources.TIER_ALWAYS)) {
+                return;
+            }
+            layoutForSize(width, height);
+        }
+
+        /**
+         * Lays the face out for a {@code width} x {@code height} surface: hand lengths, images at
+         * their drawn size and hand sprites.
+         */
+        private void layoutForSize(int width, int height) {
+            mSurfaceWidth = width;
+            mSurfaceHeight = height;
 
             /*
              * Find the coordinates of the center point on the screen, and ignore the window
@@ -404,74 +614,106 @@ public class MyWatchFace extends CanvasWatchFaceService {
             sMinuteHandLength = (float) (mCenterX * 0.85);
             sHourHandLength = (float) (mCenterX * 0.7);
 
+            /* Decode the images at the size they are drawn at for this surface. */
+            mStartupTrace.begin(StartupTrace.PHASE_DECODE);
+            int backgroundWidth = BitmapLoader.decodeBounds(getResources(),
+                    isRound ? R.drawable.bg : R.drawable.sbg).outWidth;
+            mBitmapScale = ((float) width) / (float) backgroundWidth;
+            mResources.reload();
+            mStartupTrace.end(StartupTrace.PHASE_DECODE);
 
-            /* Scale loaded background image (more efficient) if surface dimensions change. */
-            float scale = ((float) width) / (float) mBackgroundBitmap.getWidth();
+            if (!mAmbient) {
+                mStartupTrace.begin(StartupTrace.PHASE_SCALE);
+                updateHandSprites();
+                mStartupTrace.end(StartupTrace.PHASE_SCALE);
+            }
+        }
 
-            mBackgroundBitmap = Bitmap.createScaledBitmap(mBackgroundBitmap,
-                    (int) (mBackgroundBitmap.getWidth() * scale),
-                    (int) (mBackgroundBitmap.getHeight() * scale), true);
+        @Override
+        public void onDraw(Canvas canvas, Rect bounds) {
+            long now = System.currentTimeMillis();
+            boolean firstFrame = !mStartupTrace.isFirstFrameDrawn();
+            if (firstFrame) {
+                mStartupTrace.begin(StartupTrace.PHASE_FIRST_DRAW);
+            }
+            mFrameMetrics.beginFrame(now, mRedrawScheduler.takeFrameDeadline());
+            drawFrame(canvas, now);
+            mFrameMetrics.endFrame();
+            if (firstFrame) {
+                mStartupTrace.firstFrameDrawn();
+            }
+        }
 
-            mBackgroundCenterBitmap = Bitmap.createScaledBitmap(mBackgroundCenterBitmap,
-                    (int) (mBackgroundCenterBitmap.getWidth() * scale),
-                    (int) (mBackgroundCenterBitmap.getHeight() * scale), true);
+        @Override
+        public void prepareBenchmark(int width, int height) {
+            mFrameMetrics.setEnabled(false);
+            layoutForSize(width, height);
+        }
 
-            /*
-             * Create a gray version of the image only if it will look nice on the device in
-             * ambient mode. That means we don't want devices that support burn-in
-             * protection (slight movements in pixels, not great for images going all the way to
-             * edges) and low ambient mode (degrades image quality).
-             *
-             * Also, if your watch face will know about all images ahead of time (users aren't
-             * selecting their own photos for the watch face), it will be more
-             * efficient to create a black/white version (png, etc.) and load that when you need it.
-             */
-            if (!mBurnInProtection && !mLowBitAmbient) {
-                initGrayBackgroundBitmap();
-                initGrayBackgroundCenterBitmap();
-            }
+        @Override
+        public void setBenchmarkMode(int mode) {
+            mAmbient = mode == FrameBenchmark.MODE_AMBIENT;
+            mResources.setAmbient(mAmbient);
+            updateWatchHandStyle();
+            setMuteMode(mode == FrameBenchmark.MODE_MUTE);
         }
 
-        //灰色背景
-        private void initGrayBackgroundBitmap() {
-            mGrayBackgroundBitmap = Bitmap.createBitmap(
-                    mBackgroundBitmap.getWidth(),
-                    mBackgroundBitmap.getHeight(),
-                    Bitmap.Config.ARGB_8888);
-            Canvas canvas = new Canvas(mGrayBackgroundBitmap);
-            Paint grayPaint = new Paint();
-            ColorMatrix colorMatrix = new ColorMatrix();
-            colorMatrix.setSaturation(0);
-            ColorMatrixColorFilter filter = new ColorMatrixColorFilter(colorMatrix);
-            grayPaint.setColorFilter(filter);
-            canvas.drawBitmap(mBackgroundBitmap, 0, 0, grayPaint);
-        }
-
-        //灰色中部圈儿
-        private void initGrayBackgroundCenterBitmap() {
-            mGrayBackgroundCenterBitmap = Bitmap.createBitmap(
-                    mBackgroundCenterBitmap.getWidth(),
-                    mBackgroundCenterBitmap.getHeight(),
-                    Bitmap.Config.ARGB_8888);
-            Canvas canvas = new Canvas(mGrayBackgroundCenterBitmap);
-            Paint grayPaint = new Paint();
-            ColorMatrix colorMatrix = new ColorMatrix();
-            colorMatrix.setSaturation(0);
-            ColorMatrixColorFilter filter = new ColorMatrixColorFilter(colorMatrix);
-            grayPaint.setColorFilter(filter);
-            canvas.drawBitmap(mBackgroundCenterBitmap, 0, 0, grayPaint);
+        @Override
+        public void drawBenchmarkFrame(Canvas canvas, long now) {
+            drawFrame(canvas, now);
         }
+
         @Override
-        public void onDraw(Canvas canvas, Rect bounds) {
-            long now = System.currentTimeMillis();
+        public void finishBenchmark() {
+            mAmbient = isInAmbientMode();
+            mResources.setAmbient(mAmbient);
+            updateWatchHandStyle();
+            setMuteMode(getInterruptionFilter() == WatchFaceService.INTERRUPTION_FILTER_NONE);
+            Rect frame = getSurfaceHolder().getSurfaceFrame();
+            layoutForSize(frame.width(), frame.height());
+            mFrameMetrics.setEnabled(true);
+            invalidate();
+        }
+
+        /**
+         * Draws a hand pointing up from the center gap; rotate the canvas first.
+         */
+        private void drawHand(Canvas canvas, HandSprite sprite, float length, Paint paint) {
+            if (mAmbient || sprite == null) {
+                canvas.drawLine(mCenterX, mCenterY - CENTER_GAP_AND_CIRCLE_RADIUS,
+                        mCenterX, mCenterY - length, paint);
+            } else {
+                mHandSpritePaint.setAlpha(paint.getAlpha());
+                sprite.draw(canvas, mCenterX, mCenterY - CENTER_GAP_AND_CIRCLE_RADIUS,
+                        mHandSpritePaint);
+            }
+        }
+
+        private void drawFrame(Canvas canvas, long now) {
             mCalendar.setTimeInMillis(now);
+            mFrameMetrics.begin(FrameMetrics.PHASE_TEXT);
+            int changed = mFormatter.update(mCalendar);
+            if ((changed & (CalendarFormatter.FIELD_DAY | CalendarFormatter.FIELD_MONTH)) != 0) {
+                mDateText.clear()
+                        .append(mFormatter.getMonthNameText())
+                        .append(' ')
+                        .append(mFormatter.getDayText());
+            }
+            mFrameMetrics.end(FrameMetrics.PHASE_TEXT);
 
             //背景
+            mFrameMetrics.begin(FrameMetrics.PHASE_BACKGROUND);
             if (mAmbient) {
-                canvas.drawBitmap(mGrayBackgroundBitmap, 0, 0, mBackgroundPaint);
+                if (mGrayBackgroundBitmap != null) {
+                    canvas.drawBitmap(mGrayBackgroundBitmap, 0, 0, mBackgroundPaint);
+                } else {
+                    /* Burn-in protected screens get no ambient background. */
+                    canvas.drawColor(Color.BLACK);
+                }
             } else {
                 canvas.drawBitmap(mBackgroundBitmap, 0, 0, mBackgroundPaint);
             }
+            mFrameMetrics.end(FrameMetrics.PHASE_BACKGROUND);
 
             /*
              * Draw ticks. Usually you will want to bake this directly into the photo, but in
@@ -494,11 +736,13 @@ public class MyWatchFace extends CanvasWatchFaceService {
             float bcHeight = mBackgroundCenterBitmap.getHeight();
 
             // date
-            String dateStr = mDateFormat.format(now);
-            mTextDatePaint.getTextBounds(dateStr,0,dateStr.length(),rect);
+            mFrameMetrics.begin(FrameMetrics.PHASE_TEXT);
+            TextBuffer dateStr = mDateText;
+            mDateAtlas.getTextBounds(dateStr,rect);
             float dateWidth =rect.width();
             float dateHeight =rect.height();
-            canvas.drawText(dateStr.toUpperCase(), mCenterX - dateWidth / 2 , mCenterY + dateHeight/2 - 0.3f * bcHeight, mTextDatePaint);
+            mDateAtlas.drawText(canvas, dateStr, mCenterX - dateWidth / 2 , mCenterY + dateHeight/2 - 0.3f * bcHeight);
+            mFrameMetrics.end(FrameMetrics.PHASE_TEXT);
 
             /*
              * These calculations reflect the rotation in degrees per unit of time, e.g.,
@@ -517,23 +761,14 @@ public class MyWatchFace extends CanvasWatchFaceService {
             /*
              * Save the canvas state before we can begin to rotate it.
              */
+            mFrameMetrics.begin(FrameMetrics.PHASE_HANDS);
             canvas.save();
 
             canvas.rotate(hoursRotation, mCenterX, mCenterY);
-            canvas.drawLine(
-                    mCenterX,
-                    mCenterY - CENTER_GAP_AND_CIRCLE_RADIUS,
-                    mCenterX,
-                    mCenterY - sHourHandLength,
-                    mHourPaint);
+            drawHand(canvas, mHourSprite, sHourHandLength, mHourPaint);
 
             canvas.rotate(minutesRotation - hoursRotation, mCenterX, mCenterY);
-            canvas.drawLine(
-                    mCenterX,
-                    mCenterY - CENTER_GAP_AND_CIRCLE_RADIUS,
-                    mCenterX,
-                    mCenterY - sMinuteHandLength,
-                    mMinutePaint);
+            drawHand(canvas, mMinuteSprite, sMinuteHandLength, mMinutePaint);
 
             /*
              * Ensure the "seconds" hand is drawn only when we are in interactive mode.
@@ -541,55 +776,57 @@ public class MyWatchFace extends CanvasWatchFaceService {
              */
             if (!mAmbient) {
                 canvas.rotate(secondsRotation - minutesRotation, mCenterX, mCenterY);
-                canvas.drawLine(
-                        mCenterX,
-                        mCenterY - CENTER_GAP_AND_CIRCLE_RADIUS,
-                        mCenterX,
-                        mCenterY - mSecondHandLength,
-                        mSecondPaint);
+                drawHand(canvas, mSecondSprite, mSecondHandLength, mSecondPaint);
 
             }
 
 
             /* Restore the canvas' original orientation. */
             canvas.restore();
+            mFrameMetrics.end(FrameMetrics.PHASE_HANDS);
 
             //中部圈儿
+            mFrameMetrics.begin(FrameMetrics.PHASE_BACKGROUND);
             if (mAmbient) {
-                canvas.drawBitmap(mGrayBackgroundCenterBitmap, 0, 0, mBackgroundPaint);
+                if (mGrayBackgroundCenterBitmap != null) {
+                    canvas.drawBitmap(mGrayBackgroundCenterBitmap, 0, 0, mBackgroundPaint);
+                }
             } else {
                 canvas.drawBitmap(mBackgroundCenterBitmap, 0, 0, mBackgroundPaint);
             }
+            mFrameMetrics.end(FrameMetrics.PHASE_BACKGROUND);
 
 
             // 时
-            String monthStr = mMonthFormat.format(now);
-            mTextHourPaint.getTextBounds(monthStr,0,monthStr.length(),rect);
+            mFrameMetrics.begin(FrameMetrics.PHASE_TEXT);
+            TextBuffer monthStr = mFormatter.getHourText();
+            mHourAtlas.getTextBounds(monthStr,rect);
             float monthWidth =rect.width();
             float monthHeight =rect.height();
-            canvas.drawText(monthStr, mCenterX - monthWidth / 2, mCenterY+ monthHeight/2 - 0.1f*bcHeight, mTextHourPaint);
+            mHourAtlas.drawText(canvas, monthStr, mCenterX - monthWidth / 2, mCenterY+ monthHeight/2 - 0.1f*bcHeight);
 
             // 分
-            String dayStr = mDayFormat.format(now);
-            mTextMinutePaint.getTextBounds(dayStr,0,dayStr.length(),rect);
+            TextBuffer dayStr = mFormatter.getMinuteText();
+            mMinuteAtlas.getTextBounds(dayStr,rect);
             float dayWidth =rect.width();
             float dayHeight =rect.height();
-            canvas.drawText(dayStr, mCenterX - dayWidth / 2, mCenterY + dayHeight + 0.1f*bcHeight, mTextMinutePaint);
+            mMinuteAtlas.drawText(canvas, dayStr, mCenterX - dayWidth / 2, mCenterY + dayHeight + 0.1f*bcHeight);
 
             // ampm
-            String ampmStr = mAmPmFormat.format(now);
-            mTextAmPmPaint.getTextBounds(ampmStr,0,ampmStr.length(),rect);
+            TextBuffer ampmStr = mFormatter.getAmPmText();
+            mAmPmAtlas.getTextBounds(ampmStr,rect);
             float ampmWidth =rect.width();
             float ampmHeight =rect.height();
-            canvas.drawText(ampmStr.toUpperCase(), mCenterX - ampmWidth / 2  + 0.1f*bcWidth, mCenterY + ampmHeight/2 , mTextAmPmPaint);
+            mAmPmAtlas.drawText(canvas, ampmStr, mCenterX - ampmWidth / 2  + 0.1f*bcWidth, mCenterY + ampmHeight/2);
 
 
             // Week
-            String weekStr = mWeekFormat.format(now);
-            mTextWeekPaint.getTextBounds(weekStr,0,weekStr.length(),rect);
+            TextBuffer weekStr = mFormatter.getWeekdayText();
+            mWeekAtlas.getTextBounds(weekStr,rect);
             float weekWidth =rect.width();
             float weekHeight =rect.height();
-            canvas.drawText(weekStr.toUpperCase(), mCenterX - weekWidth / 2  - 0.1f*bcWidth, mCenterY + weekHeight/2 , mTextWeekPaint);
+            mWeekAtlas.drawText(canvas, weekStr, mCenterX - weekWidth / 2  - 0.1f*bcWidth, mCenterY + weekHeight/2);
+            mFrameMetrics.end(FrameMetrics.PHASE_TEXT);
 
 
 
@@ -607,13 +844,14 @@ public class MyWatchFace extends CanvasWatchFaceService {
                 registerReceiver();
                 /* Update time zone in case it changed while we weren't visible. */
                 mCalendar.setTimeZone(TimeZone.getDefault());
+                mFormatter.invalidate();
                 invalidate();
             } else {
                 unregisterReceiver();
             }
 
             /* Check and trigger whether or not timer should be running (only in active mode). */
-            updateTimer();
+            mRedrawScheduler.update();
         }
 
         @Override
@@ -628,6 +866,7 @@ public class MyWatchFace extends CanvasWatchFaceService {
             }
             mRegisteredTimeZoneReceiver = true;
             IntentFilter filter = new IntentFilter(Intent.ACTION_TIMEZONE_CHANGED);
+            filter.addAction(Intent.ACTION_LOCALE_CHANGED);
             MyWatchFace.this.registerReceiver(mTimeZoneReceiver, filter);
         }
 
@@ -640,56 +879,21 @@ public class MyWatchFace extends CanvasWatchFaceService {
         }
 
         /**
-         * Starts/stops the {@link #mUpdateTimeHandler} timer based on the state of the watch face.
-         */
-        private void updateTimer() {
-
-            mUpdateTimeHandler.removeMessages(MSG_UPDATE_TIME);
-            if (shouldTimerBeRunning()) {
-                Log.i("htht", "我被调用了------发送一直重绘的请求 ");
-                mUpdateTimeHandler.sendEmptyMessage(MSG_UPDATE_TIME);
-            }
-        }
-
-        /**
-         * Returns whether the {@link #mUpdateTimeHandler} timer should be running. The timer
+         * Returns whether the {@link #mRedrawScheduler} should be running. The timer
          * should only run in active mode.
          */
-        private boolean shouldTimerBeRunning() {
+        @Override
+        public boolean shouldTimerBeRunning() {
             return isVisible() && !mAmbient;
         }
 
         /**
-         * Handle updating the time periodically in interactive mode.
+         * The digital time only changes once a minute, but the red second hand is drawn in
+         * interactive mode, so that is what sets the pace here.
          */
-        private void handleUpdateTimeMessage() {
-            invalidate();
-            if (shouldTimerBeRunning()) {
-                long timeMs = System.currentTimeMillis();
-                long delayMs = INTERACTIVE_UPDATE_RATE_MS
-                        - (timeMs % INTERACTIVE_UPDATE_RATE_MS);
-                mUpdateTimeHandler.sendEmptyMessageDelayed(MSG_UPDATE_TIME, delayMs);
-            }
-        }
-    }
-
-    private static class EngineHandler extends Handler {
-        private final WeakReference<MyWatchFace.Engine> mWeakReference;
-
-        public EngineHandler(MyWatchFace.Engine reference) {
-            mWeakReference = new WeakReference<>(reference);
-        }
-
         @Override
-        public void handleMessage(Message msg) {
-            MyWatchFace.Engine engine = mWeakReference.get();
-            if (engine != null) {
-                switch (msg.what) {
-                    case MSG_UPDATE_TIME:
-                        engine.handleUpdateTimeMessage();
-                        break;
-                }
-            }
+        public long getNextRedrawTime(long now) {
+            return RedrawScheduler.nextSecond(now);
         }
     }
 }
@@ -0,0 +1,50 @@
+package com.amber.wear.watchface.common;
+
+import android.content.res.Resources;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Finds the drawables generated at build time by {@code gradle/asset-pipeline.gradle}.
+ * <p>
+ * For a drawable {@code name} the pipeline may generate {@code name_<width>} (pre-sized for a
+ * surface width), {@code name_ambient} (desaturated) and {@code name_lowbit} (1 bit, white on
+ * transparent), the latter two also pre-sized as {@code name_ambient_<width>}. Lookups go by
+ * name, so a module that doesn't apply the pipeline simply finds nothing.
+ */
+public class AssetVariants {
+    public static final String SUFFIX_NONE = "";
+    public static final String SUFFIX_AMBIENT = "_ambient";
+    public static final String SUFFIX_LOW_BIT = "_lowbit";
+
+    /* getIdentifier is a string lookup in the resource table; remember the answers. */
+    private static final Map<String, Integer> sIds = new HashMap<>();
+
+    private AssetVariants() {
+    }
+
+    /**
+     * Returns the generated variant of {@code resId} closest to what is asked for: the one with
+     * {@code suffix} pre-sized for {@code width}, else the one with {@code suffix} at resource
+     * size, or 0 if there is none.
+     */
+    public static synchronized int find(Resources res, int resId, String suffix, int width) {
+        String name = res.getResourceEntryName(resId) + suffix;
+        String packageName = res.getResourcePackageName(resId);
+        int id = getIdentifier(res, name + "_" + width, packageName);
+        if (id == 0 && !SUFFIX_NONE.equals(suffix)) {
+            id = getIdentifier(res, name, packageName);
+        }
+        return id;
+    }
+
+    private static int getIdentifier(Resources res, String name, String packageName) {
+        Integer id = sIds.get(name);
+        if (id == null) {
+            id = res.getIdentifier(name, "drawable", packageName);
+            sIds.put(name, id);
+        }
+        return id;
+    }
+}
@@ -0,0 +1,96 @@
+package com.amber.wear.watchface.common;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+/**
+ * Decodes drawables straight to the size they are drawn at, instead of decoding at full size and
+ * then making a scaled copy with {@link Bitmap#createScaledBitmap}.
+ * <p>
+ * The PNG bounds are read first; the decoder then subsamples with {@code inSampleSize} and
+ * scales the rest of the way through the density fields, so only the final bitmap is allocated.
+ * Opaque layers can be decoded as {@link Bitmap.Config#RGB_565}, which halves their size.
+ * <p>
+ * Decoded bitmaps have no density, so they draw pixel for pixel on any canvas, like on the
+ * watch face surface.
+ */
+public class BitmapLoader {
+
+    private BitmapLoader() {
+    }
+
+    /**
+     * Returns the size of the drawable without decoding it.
+     */
+    public static BitmapFactory.Options decodeBounds(Resources res, int resId) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeResource(res, resId, options);
+        return options;
+    }
+
+    /**
+     * Decodes the drawable scaled by {@code scale}, with the same truncated size
+     * {@code createScaledBitmap(bitmap, (int) (width * scale), (int) (height * scale), true)}
+     * would give.
+     *
+     * @param opaque decode as RGB_565; only for layers without visible transparency
+     */
+    public static Bitmap decodeScaled(Resources res, int resId, float scale, boolean opaque) {
+        BitmapFactory.Options bounds = decodeBounds(res, resId);
+        int width = Math.max(1, (int) (bounds.outWidth * scale));
+        int height = Math.max(1, (int) (bounds.outHeight * scale));
+        return decode(res, resId, bounds.outWidth, bounds.outHeight, width, height, opaque);
+    }
+
+    /**
+     * Decodes the drawable at exactly {@code width} x {@code height}.
+     */
+    public static Bitmap decode(Resources res, int resId, int width, int height, boolean opaque) {
+        BitmapFactory.Options bounds = decodeBounds(res, resId);
+        return decode(res, resId, bounds.outWidth, bounds.outHeight, width, height, opaque);
+    }
+
+    private static Bitmap decode(Resources res, int resId, int sourceWidth, int sourceHeight,
+            int width, int height, boolean opaque) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = opaque ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+
+        /* Subsample by the largest power of two that still leaves at least the target size. */
+        int sampleSize = 1;
+        while (sourceWidth / (sampleSize * 2) >= width && sourceHeight / (sampleSize * 2) >= height) {
+            sampleSize *= 2;
+        }
+        options.inSampleSize = sampleSize;
+
+        /* Let the decoder scale the rest of the way, as it does for density buckets. */
+        int sampledWidth = sourceWidth / sampleSize;
+        if (sampledWidth != width) {
+            options.inScaled = true;
+            options.inDensity = sampledWidth;
+            options.inTargetDensity = width;
+        } else {
+            options.inScaled = false;
+        }
+
+        Bitmap bitmap = BitmapFactory.decodeResource(res, resId, options);
+        if (bitmap == null) {
+            return null;
+        }
+        if (bitmap.getWidth() != width || bitmap.getHeight() != height) {
+            /* Density scaling rounds each side on its own; fix up the odd off-by-one. */
+            Bitmap scaled = Bitmap.createScaledBitmap(bitmap, width, height, true);
+            if (scaled != bitmap) {
+                bitmap.recycle();
+            }
+            bitmap = scaled;
+        }
+        /*
+         * The decoder leaves inTargetDensity as the bitmap's density. Offscreen canvases have the
+         * display density and would scale the bitmap again by their ratio when drawing it.
+         */
+        bitmap.setDensity(Bitmap.DENSITY_NONE);
+        return bitmap;
+    }
+}
@@ -0,0 +1,236 @@
+package com.amber.wear.watchface.common;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.ColorMatrix;
+import android.graphics.ColorMatrixColorFilter;
+import android.graphics.Paint;
+
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Process-wide, reference-counted cache of decoded drawables, so engines (the active face and its
+ * preview) and repeated uses of one drawable within a face share pixels.
+ * <p>
+ * Bitmaps are keyed by resource, size, config and variant. Every {@code acquire} must be matched
+ * by a {@link #release(Bitmap)}. Bitmaps nobody holds are kept, least recently released first out,
+ * while they fit in the unused budget, so switching back to an earlier surface size or recreating
+ * an engine doesn't decode again. Callers must never recycle pooled bitmaps themselves.
+ * <p>
+ * Drawables the build pre-sized or pre-converted (see {@link AssetVariants}) are decoded as they
+ * are; the others are scaled and converted here.
+ */
+public class BitmapPool {
+    public static final int VARIANT_NORMAL = 0;
+    /** Desaturated, for ambient mode. */
+    public static final int VARIANT_GRAY = 1;
+    /** White on transparent, for low-bit ambient mode. Always ARGB. */
+    public static final int VARIANT_LOW_BIT = 2;
+    private static final String[] VARIANT_SUFFIXES =
+            {AssetVariants.SUFFIX_NONE, AssetVariants.SUFFIX_AMBIENT, AssetVariants.SUFFIX_LOW_BIT};
+
+    private static final long DEFAULT_UNUSED_BUDGET_BYTES = 4 * 1024 * 1024;
+
+    private static final BitmapPool sInstance = new BitmapPool();
+
+    private final Map<Key, Entry> mEntries = new HashMap<>();
+    private final Map<Bitmap, Entry> mEntriesByBitmap = new IdentityHashMap<>();
+    /* Entries with no references, in release order. */
+    private final LinkedHashMap<Key, Entry> mUnused = new LinkedHashMap<>();
+    private long mResidentBytes;
+    private long mUnusedBytes;
+    private long mUnusedBudgetBytes = DEFAULT_UNUSED_BUDGET_BYTES;
+    private long mHits;
+    private long mMisses;
+
+    public static BitmapPool getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Returns the drawable scaled by {@code scale}, sized like
+     * {@link BitmapLoader#decodeScaled(Resources, int, float, boolean)}.
+     */
+    public synchronized Bitmap acquireScaled(Resources res, int resId, float scale, boolean opaque,
+            int variant) {
+        BitmapFactory.Options bounds = BitmapLoader.decodeBounds(res, resId);
+        int width = Math.max(1, (int) (bounds.outWidth * scale));
+        int height = Math.max(1, (int) (bounds.outHeight * scale));
+        return acquire(res, resId, width, height, opaque, variant);
+    }
+
+    public synchronized Bitmap acquire(Resources res, int resId, int width, int height,
+            boolean opaque, int variant) {
+        Key key = new Key(resId, width, height, opaque, variant);
+        Entry entry = mEntries.get(key);
+        if (entry != null) {
+            mHits++;
+            if (entry.mRefCount == 0) {
+                mUnused.remove(key);
+                mUnusedBytes -= entry.mBitmap.getByteCount();
+            }
+        } else {
+            mMisses++;
+            Bitmap bitmap;
+            int generatedId = AssetVariants.find(res, resId, VARIANT_SUFFIXES[variant], width);
+            if (generatedId != 0) {
+                bitmap = BitmapLoader.decode(res, generatedId, width, height,
+                        opaque && variant != VARIANT_LOW_BIT);
+            } else if (variant != VARIANT_NORMAL) {
+                Bitmap source = acquire(res, resId, width, height, opaque, VARIANT_NORMAL);
+                bitmap = variant == VARIANT_GRAY ? createGray(source) : createLowBit(source);
+                release(source);
+            } else {
+                bitmap = BitmapLoader.decode(res, resId, width, height, opaque);
+            }
+            entry = new Entry(key, bitmap);
+            mEntries.put(key, entry);
+            mEntriesByBitmap.put(bitmap, entry);
+            mResidentBytes += bitmap.getByteCount();
+        }
+        entry.mRefCount++;
+        return entry.mBitmap;
+    }
+
+    /**
+     * Gives back one reference. Bitmaps that didn't come from the pool, and null, are ignored.
+     */
+    public synchronized void release(Bitmap bitmap) {
+        Entry entry = bitmap == null ? null : mEntriesByBitmap.get(bitmap);
+        if (entry == null) {
+            return;
+        }
+        if (--entry.mRefCount == 0) {
+            mUnused.put(entry.mKey, entry);
+            mUnusedBytes += bitmap.getByteCount();
+            trimUnused(mUnusedBudgetBytes);
+        }
+    }
+
+    /**
+     * Sets how many bytes of bitmaps nobody holds may be kept, and trims to it.
+     */
+    public synchronized void setUnusedBudget(long bytes) {
+        mUnusedBudgetBytes = bytes;
+        trimUnused(bytes);
+    }
+
+    /**
+     * Recycles bitmaps nobody holds, oldest first, until they take at most {@code maxBytes}.
+     *
+     * @return the bytes freed
+     */
+    public synchronized long trimUnused(long maxBytes) {
+        long freed = 0;
+        Iterator<Entry> iterator = mUnused.values().iterator();
+        while (mUnusedBytes > maxBytes && iterator.hasNext()) {
+            Entry entry = iterator.next();
+            iterator.remove();
+            int bytes = entry.mBitmap.getByteCount();
+            mEntries.remove(entry.mKey);
+            mEntriesByBitmap.remove(entry.mBitmap);
+            mUnusedBytes -= bytes;
+            mResidentBytes -= bytes;
+            freed += bytes;
+            entry.mBitmap.recycle();
+        }
+        return freed;
+    }
+
+    /**
+     * Returns the bytes held by pooled bitmaps.
+     */
+    public synchronized long getResidentBytes() {
+        return mResidentBytes;
+    }
+
+    public synchronized void dump(PrintWriter writer) {
+        writer.println("bitmap pool: " + mEntries.size() + " bitmaps, " + mResidentBytes
+                + " bytes resident (" + mUnused.size() + " unused, " + mUnusedBytes + " bytes), "
+                + mHits + " hits, " + mMisses + " misses");
+    }
+
+    private static Bitmap createGray(Bitmap source) {
+        Bitmap gray = Bitmap.createBitmap(source.getWidth(), source.getHeight(), source.getConfig());
+        ColorMatrix colorMatrix = new ColorMatrix();
+        colorMatrix.setSaturation(0);
+        Paint grayPaint = new Paint();
+        grayPaint.setColorFilter(new ColorMatrixColorFilter(colorMatrix));
+        new Canvas(gray).drawBitmap(source, 0, 0, grayPaint);
+        gray.setDensity(Bitmap.DENSITY_NONE);
+        return gray;
+    }
+
+    /* Same threshold as the build: opaque white where alpha and luminance are at least half. */
+    private static Bitmap createLowBit(Bitmap source) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        int[] pixels = new int[width * height];
+        source.getPixels(pixels, 0, width, 0, 0, width, height);
+        for (int i = 0; i < pixels.length; i++) {
+            int color = pixels[i];
+            int luminance = (213 * Color.red(color) + 715 * Color.green(color)
+                    + 72 * Color.blue(color)) / 1000;
+            pixels[i] = Color.alpha(color) >= 128 && luminance >= 128
+                    ? Color.WHITE : Color.TRANSPARENT;
+        }
+        Bitmap lowBit = Bitmap.createBitmap(pixels, width, height, Bitmap.Config.ARGB_8888);
+        lowBit.setDensity(Bitmap.DENSITY_NONE);
+        return lowBit;
+    }
+
+    private static class Entry {
+        final Key mKey;
+        final Bitmap mBitmap;
+        int mRefCount;
+
+        Entry(Key key, Bitmap bitmap) {
+            mKey = key;
+            mBitmap = bitmap;
+        }
+    }
+
+    private static class Key {
+        final int mResId;
+        final int mWidth;
+        final int mHeight;
+        final boolean mOpaque;
+        final int mVariant;
+
+        Key(int resId, int width, int height, boolean opaque, int variant) {
+            mResId = resId;
+            mWidth = width;
+            mHeight = height;
+            mOpaque = opaque;
+            mVariant = variant;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return mResId == other.mResId && mWidth == other.mWidth && mHeight == other.mHeight
+                    && mOpaque == other.mOpaque && mVariant == other.mVariant;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = mResId;
+            result = 31 * result + mWidth;
+            result = 31 * result + mHeight;
+            result = 31 * result + (mOpaque ? 1 : 0);
+            result = 31 * result + mVariant;
+            return result;
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package com.amber.wear.watchface.common;
+
+import java.text.DateFormatSymbols;
+import java.text.DecimalFormatSymbols;
+import java.util.Calendar;
+import java.util.Locale;
+
+/**
+ * Formats the calendar fields the faces show into reusable {@link TextBuffer}s, replacing
+ * per-frame {@code SimpleDateFormat.format} calls.
+ * <p>
+ * Weekday, month and AM/PM names are looked up once per locale. {@link #update(Calendar)} only
+ * rewrites the fields whose value changed since the last call and reports which ones did. Call
+ * {@link #invalidate()} after a time zone change and {@link #setLocale(Locale)} after a locale
+ * change.
+ */
+public class CalendarFormatter {
+    public static final int FIELD_SECOND = 1;
+    public static final int FIELD_MINUTE = 1 << 1;
+    public static final int FIELD_HOUR = 1 << 2;
+    public static final int FIELD_AM_PM = 1 << 3;
+    /** Day of month and weekday. */
+    public static final int FIELD_DAY = 1 << 4;
+    public static final int FIELD_MONTH = 1 << 5;
+    public static final int FIELD_ALL = (1 << 6) - 1;
+
+    private static final int NAME_CAPACITY = 32;
+
+    private final boolean mUpperCase;
+
+    /* Indexed like the Calendar fields: weekdays 1..7, months 0..11, AM_PM 0..1. */
+    private String[] mWeekdayNames;
+    private String[] mMonthNames;
+    private String[] mAmPmNames;
+    private char mZeroDigit;
+
+    private final TextBuffer mSecondText = new TextBuffer(2);
+    private final TextBuffer mMinuteText = new TextBuffer(2);
+    private final TextBuffer mHourText = new TextBuffer(2);
+    private final TextBuffer mAmPmText = new TextBuffer(NAME_CAPACITY);
+    private final TextBuffer mDayText = new TextBuffer(2);
+    private final TextBuffer mWeekdayText = new TextBuffer(NAME_CAPACITY);
+    private final TextBuffer mMonthText = new TextBuffer(2);
+    private final TextBuffer mMonthNameText = new TextBuffer(NAME_CAPACITY);
+
+    private int mSecond;
+    private int mMinute;
+    private int mHour;
+    private int mAmPm;
+    private int mDay;
+    private int mMonth;
+
+    /**
+     * @param upperCase whether weekday, month and AM/PM names are upper-cased
+     */
+    public CalendarFormatter(Locale locale, boolean upperCase) {
+        mUpperCase = upperCase;
+        setLocale(locale);
+    }
+
+    public void setLocale(Locale locale) {
+        DateFormatSymbols symbols = DateFormatSymbols.getInstance(locale);
+        mWeekdayNames = names(symbols.getShortWeekdays(), locale);
+        mMonthNames = names(symbols.getShortMonths(), locale);
+        mAmPmNames = names(symbols.getAmPmStrings(), locale);
+        mZeroDigit = DecimalFormatSymbols.getInstance(locale).getZeroDigit();
+        invalidate();
+    }
+
+    /**
+     * Forces every field to be rewritten on the next {@link #update(Calendar)}.
+     */
+    public void invalidate() {
+        mSecond = -1;
+        mMinute = -1;
+        mHour = -1;
+        mAmPm = -1;
+        mDay = -1;
+        mMonth = -1;
+    }
+
+    /**
+     * Rewrites the fields that changed.
+     *
+     * @return a mask of the {@code FIELD_*} constants that changed
+     */
+    public int update(Calendar calendar) {
+        int changed = 0;
+        int second = calendar.get(Calendar.SECOND);
+        if (second != mSecond) {
+            mSecond = second;
+            writeTwoDigits(mSecondText, second);
+            changed |= FIELD_SECOND;
+        }
+        int minute = calendar.get(Calendar.MINUTE);
+        if (minute != mMinute) {
+            mMinute = minute;
+            writeTwoDigits(mMinuteText, minute);
+            changed |= FIELD_MINUTE;
+        }
+        int hour = calendar.get(Calendar.HOUR);
+        if (hour != mHour) {
+            mHour = hour;
+            writeTwoDigits(mHourText, hour == 0 ? 12 : hour);
+            changed |= FIELD_HOUR;
+        }
+        int amPm = calendar.get(Calendar.AM_PM);
+        if (amPm != mAmPm) {
+            mAmPm = amPm;
+            mAmPmText.clear().append(mAmPmNames[amPm]);
+            changed |= FIELD_AM_PM;
+        }
+        int day = calendar.get(Calendar.YEAR) * 1000 + calendar.get(Calendar.DAY_OF_YEAR);
+        if (day != mDay) {
+            mDay = day;
+            writeTwoDigits(mDayText, calendar.get(Calendar.DAY_OF_MONTH));
+            mWeekdayText.clear().append(mWeekdayNames[calendar.get(Calendar.DAY_OF_WEEK)]);
+            changed |= FIELD_DAY;
+        }
+        int month = calendar.get(Calendar.MONTH);
+        if (month != mMonth) {
+            mMonth = month;
+            writeTwoDigits(mMonthText, month + 1);
+            mMonthNameText.clear().append(mMonthNames[month]);
+            changed |= FIELD_MONTH;
+        }
+        return changed;
+    }
+
+    /** "ss" */
+    public TextBuffer getSecondText() {
+        return mSecondText;
+    }
+
+    /** "mm" */
+    public TextBuffer getMinuteText() {
+        return mMinuteText;
+    }
+
+    /** "hh" */
+    public TextBuffer getHourText() {
+        return mHourText;
+    }
+
+    /** "a" */
+    public TextBuffer getAmPmText() {
+        return mAmPmText;
+    }
+
+    /** "dd" */
+    public TextBuffer getDayText() {
+        return mDayText;
+    }
+
+    /** "E" */
+    public TextBuffer getWeekdayText() {
+        return mWeekdayText;
+    }
+
+    /** "MM" */
+    public TextBuffer getMonthText() {
+        return mMonthText;
+    }
+
+    /** "MMM" */
+    public TextBuffer getMonthNameText() {
+        return mMonthNameText;
+    }
+
+    /**
+     * Returns the ten digits of the current locale.
+     */
+    public String getDigits() {
+        StringBuilder digits = new StringBuilder();
+        for (int i = 0; i < 10; i++) {
+            digits.append((char) (mZeroDigit + i));
+        }
+        return digits.toString();
+    }
+
+    /**
+     * Returns every character the fields can contain in the current locale, e.g. to build a
+     * {@link GlyphAtlas}.
+     */
+    public String getChars() {
+        StringBuilder chars = new StringBuilder(getDigits());
+        for (String name : mWeekdayNames) {
+            chars.append(name);
+        }
+        for (String name : mMonthNames) {
+            chars.append(name);
+        }
+        for (String name : mAmPmNames) {
+            chars.append(name);
+        }
+        return chars.toString();
+    }
+
+    private void writeTwoDigits(TextBuffer text, int value) {
+        text.clear()
+                .append((char) (mZeroDigit + value / 10))
+                .append((char) (mZeroDigit + value % 10));
+    }
+
+    private String[] names(String[] names, Locale locale) {
+        String[] result = new String[names.length];
+        for (int i = 0; i < names.length; i++) {
+            result[i] = mUpperCase ? names[i].toUpperCase(locale) : names[i];
+        }
+        return result;
+    }
+}
@@ -0,0 +1,213 @@
+package com.amber.wear.watchface.common;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.ApplicationInfo;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.os.Debug;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Draws a face's frames into an offscreen software canvas at the common Wear screen sizes and
+ * logs the time and memory allocated per frame for interactive, ambient and mute mode.
+ * <p>
+ * Runs on the device, on debuggable builds or once {@code adb shell setprop log.tag.FrameBenchmark
+ * DEBUG} is set before the engine starts:
+ * {@code adb shell am broadcast -a com.amber.wear.watchface.action.RUN_BENCHMARK}. Results are
+ * logged under the {@code FrameBenchmark} tag, followed by "<name> benchmark done". The
+ * frameBenchmark task of gradle/device-benchmarks.gradle does all this and compares the results
+ * with a stored baseline.
+ * <p>
+ * Instrumented tests running in the face's process find the live engine with
+ * {@link #getTarget(String)} and check the {@link Result}s of {@link #run(String, Target)}.
+ */
+public class FrameBenchmark {
+    private static final String TAG = "FrameBenchmark";
+
+    public static final String ACTION_RUN = "com.amber.wear.watchface.action.RUN_BENCHMARK";
+
+    public static final int MODE_INTERACTIVE = 0;
+    public static final int MODE_AMBIENT = 1;
+    public static final int MODE_MUTE = 2;
+    private static final String[] MODE_NAMES = {"interactive", "ambient", "mute"};
+
+    private static final int[] SIZES = {320, 360, 390, 454};
+
+    private static final int WARM_UP_FRAMES = 5;
+    /* One simulated minute, one frame per second, so per-minute work is amortised as on a watch. */
+    private static final int MEASURED_FRAMES = 60;
+    private static final long FRAME_INTERVAL_MS = TimeUnit.SECONDS.toMillis(1);
+
+    /**
+     * Implemented by the engines.
+     */
+    public interface Target {
+        /**
+         * Lays the face out for a {@code width} x {@code height} surface, as a surface change
+         * does, without going through the engine's onSurfaceChanged. Called before each size.
+         */
+        void prepareBenchmark(int width, int height);
+
+        /**
+         * Switches to one of the {@code MODE_*} constants without touching timers or data
+         * connections.
+         */
+        void setBenchmarkMode(int mode);
+
+        /**
+         * Draws a complete frame for wall clock time {@code now}.
+         */
+        void drawBenchmarkFrame(Canvas canvas, long now);
+
+        /**
+         * Restores the real surface size and mode.
+         */
+        void finishBenchmark();
+    }
+
+    /* The last registered engine of each face, on any build. */
+    private static final Map<String, Target> sTargets = new HashMap<>();
+
+    /**
+     * The frames measured for one size and mode.
+     */
+    public static class Result {
+        public final String name;
+        public final int size;
+        public final int mode;
+        public final int frames;
+        public final long nanos;
+        public final long bytes;
+        public final long objects;
+
+        Result(String name, int size, int mode, int frames, long nanos, long bytes,
+                long objects) {
+            this.name = name;
+            this.size = size;
+            this.mode = mode;
+            this.frames = frames;
+            this.nanos = nanos;
+            this.bytes = bytes;
+            this.objects = objects;
+        }
+
+        @Override
+        public String toString() {
+            return name + " " + size + "px " + MODE_NAMES[mode] + ": "
+                    + nanos / frames + " ns/frame, "
+                    + bytes / frames + " B/frame, "
+                    + (float) objects / frames + " objects/frame";
+        }
+    }
+
+    private FrameBenchmark() {
+    }
+
+    /**
+     * Runs {@link #run(String, Target)} when {@link #ACTION_RUN} is broadcast. Only registers on
+     * debuggable builds or when the {@code FrameBenchmark} tag is loggable at DEBUG.
+     *
+     * @return the receiver to pass to
+     * {@link #unregisterReceiver(Context, Target, BroadcastReceiver)}, or null
+     */
+    public static BroadcastReceiver registerReceiver(Context context, final String name,
+            final Target target) {
+        synchronized (sTargets) {
+            sTargets.put(name, target);
+        }
+        if ((context.getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) == 0
+                && !Log.isLoggable(TAG, Log.DEBUG)) {
+            return null;
+        }
+        BroadcastReceiver receiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                run(name, target);
+            }
+        };
+        context.registerReceiver(receiver, new IntentFilter(ACTION_RUN));
+        return receiver;
+    }
+
+    public static void unregisterReceiver(Context context, Target target,
+            BroadcastReceiver receiver) {
+        synchronized (sTargets) {
+            sTargets.values().remove(target);
+        }
+        if (receiver != null) {
+            context.unregisterReceiver(receiver);
+        }
+    }
+
+    /**
+     * Returns the live engine of face {@code name}, or null if none is registered in this
+     * process.
+     */
+    public static Target getTarget(String name) {
+        synchronized (sTargets) {
+            return sTargets.get(name);
+        }
+    }
+
+    /**
+     * Measures every size and mode; call on the thread the engine draws on.
+     */
+    public static List<Result> run(String name, Target target) {
+        List<Result> results = new ArrayList<>();
+        Calendar start = Calendar.getInstance();
+        start.set(2017, Calendar.OCTOBER, 12, 10, 8, 30);
+        try {
+            for (int size : SIZES) {
+                target.prepareBenchmark(size, size);
+                Bitmap bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+                Canvas canvas = new Canvas(bitmap);
+                /* As the surface's canvas, so decoded bitmaps aren't rescaled by density. */
+                canvas.setDensity(Bitmap.DENSITY_NONE);
+                for (int mode = MODE_INTERACTIVE; mode <= MODE_MUTE; mode++) {
+                    target.setBenchmarkMode(mode);
+                    results.add(measure(name, size, mode, target, canvas,
+                            start.getTimeInMillis()));
+                }
+                bitmap.recycle();
+            }
+        } finally {
+            target.finishBenchmark();
+        }
+        Log.i(TAG, name + " benchmark done");
+        return results;
+    }
+
+    private static Result measure(String name, int size, int mode, Target target, Canvas canvas,
+            long now) {
+        for (int i = 0; i < WARM_UP_FRAMES; i++) {
+            target.drawBenchmarkFrame(canvas, now + i * FRAME_INTERVAL_MS);
+        }
+        now += WARM_UP_FRAMES * FRAME_INTERVAL_MS;
+
+        Debug.resetThreadAllocCount();
+        Debug.resetThreadAllocSize();
+        Debug.startAllocCounting();
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < MEASURED_FRAMES; i++) {
+            target.drawBenchmarkFrame(canvas, now + i * FRAME_INTERVAL_MS);
+        }
+        long elapsedNanos = System.nanoTime() - startNanos;
+        Debug.stopAllocCounting();
+        long bytes = Debug.getThreadAllocSize();
+        long objects = Debug.getThreadAllocCount();
+
+        Result result = new Result(name, size, mode, MEASURED_FRAMES, elapsedNanos, bytes, objects);
+        Log.i(TAG, result.toString());
+        return result;
+    }
+}
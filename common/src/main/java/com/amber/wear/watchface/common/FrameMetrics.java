@@ -0,0 +1,220 @@
+package com.amber.wear.watchface.common;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.ApplicationInfo;
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Draw timing for one watch face: how long each phase of a frame takes, how late frames start
+ * compared with the second boundary they were scheduled for, and how many frames are drawn per
+ * minute.
+ * <p>
+ * Everything goes into fixed-size histograms of primitives, so recording doesn't allocate and is
+ * cheap enough to leave on. Read the numbers with {@code adb shell dumpsys activity service
+ * <watch face service>} (the services forward {@code dump()} here) or with
+ * {@code adb shell am broadcast -a com.amber.wear.watchface.action.DUMP_METRICS}, which logs them.
+ * The broadcast works on debuggable builds, or on any build once
+ * {@code adb shell setprop log.tag.FrameMetrics DEBUG} is set before the service starts.
+ */
+public class FrameMetrics {
+    private static final String TAG = "FrameMetrics";
+
+    public static final String ACTION_DUMP = "com.amber.wear.watchface.action.DUMP_METRICS";
+
+    public static final int PHASE_BACKGROUND = 0;
+    public static final int PHASE_STATIC_LAYER = 1;
+    public static final int PHASE_TEXT = 2;
+    public static final int PHASE_HANDS = 3;
+    public static final int PHASE_GAUGES = 4;
+    /** The whole of onDraw. */
+    public static final int PHASE_FRAME = 5;
+    private static final int PHASE_COUNT = 6;
+
+    private static final String[] PHASE_NAMES =
+            {"background", "static layer", "text", "hands", "gauges", "frame"};
+
+    private static final long MINUTE_MS = TimeUnit.MINUTES.toMillis(1);
+
+    private final String mName;
+    private final Histogram[] mPhases = new Histogram[PHASE_COUNT];
+    private final long[] mPhaseStarts = new long[PHASE_COUNT];
+    /* Time spent in each phase during the current frame; -1 if the phase didn't run. */
+    private final long[] mPhaseNanos = new long[PHASE_COUNT];
+    /* Microseconds between the scheduled second boundary and the start of onDraw. */
+    private final Histogram mLateness = new Histogram();
+    private final Histogram mFramesPerMinute = new Histogram();
+
+    private long mMinute = -1;
+    private int mFramesThisMinute;
+    private boolean mEnabled = true;
+
+    private BroadcastReceiver mDumpReceiver;
+
+    public FrameMetrics(String name) {
+        mName = name;
+        for (int i = 0; i < PHASE_COUNT; i++) {
+            mPhases[i] = new Histogram();
+            mPhaseNanos[i] = -1;
+        }
+    }
+
+    /**
+     * Stops or resumes recording, e.g. while {@link FrameBenchmark} draws frames that aren't
+     * shown.
+     */
+    public void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    /**
+     * Starts a frame. Call first thing in onDraw.
+     *
+     * @param now      wall clock time the frame is drawn for
+     * @param deadline the redraw deadline that led to this frame, or
+     *                 {@link RedrawScheduler#NO_DEADLINE} if it wasn't a scheduled redraw
+     */
+    public void beginFrame(long now, long deadline) {
+        if (!mEnabled) {
+            return;
+        }
+        mPhaseStarts[PHASE_FRAME] = System.nanoTime();
+        if (deadline != RedrawScheduler.NO_DEADLINE) {
+            mLateness.record(TimeUnit.MILLISECONDS.toMicros(Math.max(0, now - deadline)));
+        }
+        long minute = now / MINUTE_MS;
+        if (minute != mMinute) {
+            if (mMinute >= 0) {
+                mFramesPerMinute.record(mFramesThisMinute);
+            }
+            mMinute = minute;
+            mFramesThisMinute = 0;
+        }
+        mFramesThisMinute++;
+    }
+
+    /**
+     * Ends the frame and records the time of every phase that ran during it.
+     */
+    public void endFrame() {
+        if (!mEnabled) {
+            return;
+        }
+        end(PHASE_FRAME);
+        for (int i = 0; i < PHASE_COUNT; i++) {
+            if (mPhaseNanos[i] >= 0) {
+                mPhases[i].record(mPhaseNanos[i] / 1000);
+                mPhaseNanos[i] = -1;
+            }
+        }
+    }
+
+    public void begin(int phase) {
+        mPhaseStarts[phase] = System.nanoTime();
+    }
+
+    /**
+     * Ends a phase. A phase may run several times in one frame; the times add up.
+     */
+    public void end(int phase) {
+        if (!mEnabled) {
+            return;
+        }
+        long elapsed = System.nanoTime() - mPhaseStarts[phase];
+        mPhaseNanos[phase] = Math.max(mPhaseNanos[phase], 0) + elapsed;
+    }
+
+    public void dump(PrintWriter writer) {
+        writer.println(mName + " frame metrics (us unless noted):");
+        for (int i = 0; i < PHASE_COUNT; i++) {
+            if (mPhases[i].mCount > 0) {
+                mPhases[i].dump(writer, PHASE_NAMES[i]);
+            }
+        }
+        mLateness.dump(writer, "lateness");
+        mFramesPerMinute.dump(writer, "frames/minute (count)");
+    }
+
+    /**
+     * Logs {@link #dump(PrintWriter)} when {@link #ACTION_DUMP} is broadcast. Only registers on
+     * debuggable builds or when the {@code FrameMetrics} tag is loggable at DEBUG. Undo with
+     * {@link #unregisterDumpReceiver(Context)}.
+     */
+    public void registerDumpReceiver(Context context) {
+        if (mDumpReceiver != null) {
+            return;
+        }
+        if ((context.getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) == 0
+                && !Log.isLoggable(TAG, Log.DEBUG)) {
+            return;
+        }
+        mDumpReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                StringWriter out = new StringWriter();
+                dump(new PrintWriter(out));
+                Log.i(TAG, out.toString());
+            }
+        };
+        context.registerReceiver(mDumpReceiver, new IntentFilter(ACTION_DUMP));
+    }
+
+    public void unregisterDumpReceiver(Context context) {
+        if (mDumpReceiver != null) {
+            context.unregisterReceiver(mDumpReceiver);
+            mDumpReceiver = null;
+        }
+    }
+
+    /**
+     * Counts values in power-of-two buckets: bucket 0 holds 0 and 1, bucket i holds
+     * [2^i, 2^(i+1)), the last bucket everything above.
+     */
+    static class Histogram {
+        private static final int BUCKETS = 24;
+
+        private final long[] mBuckets = new long[BUCKETS];
+        private long mCount;
+        private long mSum;
+        private long mMax;
+
+        void record(long value) {
+            int bucket = value <= 1 ? 0 : 63 - Long.numberOfLeadingZeros(value);
+            mBuckets[Math.min(bucket, BUCKETS - 1)]++;
+            mCount++;
+            mSum += value;
+            mMax = Math.max(mMax, value);
+        }
+
+        /**
+         * Returns the upper bound of the bucket holding the given percentile.
+         */
+        long percentile(int percent) {
+            long rank = (mCount * percent + 99) / 100;
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += mBuckets[i];
+                if (seen >= rank) {
+                    return Math.min(1L << (i + 1), mMax);
+                }
+            }
+            return mMax;
+        }
+
+        void dump(PrintWriter writer, String name) {
+            if (mCount == 0) {
+                writer.println("  " + name + ": no samples");
+                return;
+            }
+            writer.println("  " + name + ": n=" + mCount + " mean=" + mSum / mCount
+                    + " p50<=" + percentile(50) + " p90<=" + percentile(90)
+                    + " p99<=" + percentile(99) + " max=" + mMax);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.amber.wear.watchface.common;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+import java.util.Arrays;
+
+/**
+ * A fixed set of characters pre-rendered with one {@link Paint} into a single bitmap strip, so
+ * text made of those characters can be measured and drawn with sub-rect blits instead of text
+ * shaping on every frame.
+ * <p>
+ * The paint's colour, alpha and anti-aliasing are baked in, so create a new atlas whenever the
+ * paint's style changes. Characters that are not in the atlas are drawn with the paint as a
+ * fallback. Kerning is not applied.
+ */
+public class GlyphAtlas {
+    /* Room around each glyph so anti-aliased edges aren't clipped. */
+    private static final int PADDING = 2;
+
+    private final Paint mPaint;
+    private final char[] mChars;
+    private final int[] mAsciiIndex = new int[128];
+    private final Bitmap mBitmap;
+    private final Rect[] mCells;
+    private final Rect[] mInkBounds;
+    private final float[] mAdvances;
+    private final int mTop;
+
+    private final Rect mDst = new Rect();
+
+    private GlyphAtlas(Paint paint, char[] chars) {
+        mPaint = new Paint(paint);
+        mPaint.setTextAlign(Paint.Align.LEFT);
+        mChars = chars;
+        Arrays.fill(mAsciiIndex, -1);
+
+        int count = chars.length;
+        mInkBounds = new Rect[count];
+        mAdvances = new float[count];
+        mCells = new Rect[count];
+        mPaint.getTextWidths(chars, 0, count, mAdvances);
+
+        int top = 0;
+        int bottom = 0;
+        int width = 0;
+        for (int i = 0; i < count; i++) {
+            if (chars[i] < mAsciiIndex.length) {
+                mAsciiIndex[chars[i]] = i;
+            }
+            mInkBounds[i] = new Rect();
+            mPaint.getTextBounds(chars, i, 1, mInkBounds[i]);
+            top = Math.min(top, mInkBounds[i].top);
+            bottom = Math.max(bottom, mInkBounds[i].bottom);
+            width += mInkBounds[i].width() + 2 * PADDING;
+        }
+        mTop = top - PADDING;
+        int height = bottom - top + 2 * PADDING;
+
+        mBitmap = Bitmap.createBitmap(Math.max(width, 1), height, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(mBitmap);
+        int x = 0;
+        for (int i = 0; i < count; i++) {
+            Rect ink = mInkBounds[i];
+            mCells[i] = new Rect(x, 0, x + ink.width() + 2 * PADDING, height);
+            canvas.drawText(chars, i, 1, x + PADDING - ink.left, -mTop, mPaint);
+            x = mCells[i].right;
+        }
+    }
+
+    /**
+     * Renders every distinct character of {@code chars} with {@code paint}.
+     */
+    public static GlyphAtlas create(Paint paint, CharSequence chars) {
+        return new GlyphAtlas(paint, distinct(chars));
+    }
+
+    private static char[] distinct(CharSequence chars) {
+        char[] distinct = new char[chars.length()];
+        int count = 0;
+        for (int i = 0; i < chars.length(); i++) {
+            char c = chars.charAt(i);
+            boolean seen = false;
+            for (int j = 0; j < count && !seen; j++) {
+                seen = distinct[j] == c;
+            }
+            if (!seen) {
+                distinct[count++] = c;
+            }
+        }
+        return Arrays.copyOf(distinct, count);
+    }
+
+    /**
+     * Whether {@link #create} would render the same atlas for these arguments, as far as the
+     * paint's colour, alpha, anti-aliasing, typeface and size go.
+     */
+    public boolean matches(Paint paint, CharSequence chars) {
+        if (mPaint.getColor() != paint.getColor()
+                || mPaint.isAntiAlias() != paint.isAntiAlias()
+                || mPaint.getTypeface() != paint.getTypeface()
+                || mPaint.getTextSize() != paint.getTextSize()) {
+            return false;
+        }
+        return Arrays.equals(mChars, distinct(chars));
+    }
+
+    /**
+     * Same as {@link Paint#getTextBounds(String, int, int, Rect)}: the ink bounds of
+     * {@code text} relative to the origin it would be drawn at.
+     */
+    public void getTextBounds(CharSequence text, Rect bounds) {
+        bounds.setEmpty();
+        float pen = 0;
+        for (int i = 0; i < text.length(); i++) {
+            int index = indexOf(text.charAt(i));
+            if (index < 0) {
+                float advance = mPaint.measureText(text, i, i + 1);
+                bounds.union((int) pen, mTop + PADDING, (int) Math.ceil(pen + advance), 0);
+                pen += advance;
+                continue;
+            }
+            Rect ink = mInkBounds[index];
+            if (!ink.isEmpty()) {
+                bounds.union(ink.left + (int) pen, ink.top, ink.right + (int) pen, ink.bottom);
+            }
+            pen += mAdvances[index];
+        }
+    }
+
+    /**
+     * Draws {@code text} with its baseline origin at ({@code x}, {@code y}), like
+     * {@link Canvas#drawText(String, float, float, Paint)} with left alignment.
+     */
+    public void drawText(Canvas canvas, CharSequence text, float x, float y) {
+        float pen = x;
+        for (int i = 0; i < text.length(); i++) {
+            int index = indexOf(text.charAt(i));
+            if (index < 0) {
+                canvas.drawText(text, i, i + 1, pen, y, mPaint);
+                pen += mPaint.measureText(text, i, i + 1);
+                continue;
+            }
+            Rect cell = mCells[index];
+            int left = Math.round(pen + mInkBounds[index].left) - PADDING;
+            int top = Math.round(y) + mTop;
+            mDst.set(left, top, left + cell.width(), top + cell.height());
+            canvas.drawBitmap(mBitmap, cell, mDst, null);
+            pen += mAdvances[index];
+        }
+    }
+
+    public void recycle() {
+        mBitmap.recycle();
+    }
+
+    private int indexOf(char c) {
+        if (c < mAsciiIndex.length) {
+            return mAsciiIndex[c];
+        }
+        for (int i = 0; i < mChars.length; i++) {
+            if (mChars[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,93 @@
+package com.amber.wear.watchface.common;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+
+/**
+ * A line hand with its drop shadow rendered once into a bitmap, so a frame draws it with one
+ * filtered blit instead of a line with {@link Paint#setShadowLayer}, which blurs in software on
+ * every draw.
+ * <p>
+ * The sprite points up, with its base at the anchor. Rotate the canvas about the hand's pivot
+ * and {@link #draw} it there. The hand's color is baked in opaque; draw with the hand paint's
+ * alpha, as the shadow of an opaque shadow color follows the paint's alpha too.
+ */
+public class HandSprite {
+    /* How far a shadow spreads beyond the shape, in blur radii; about three sigma. */
+    private static final float SHADOW_EXTENT = 2f;
+
+    private final Bitmap mBitmap;
+    private final float mAnchorX;
+    private final float mAnchorY;
+
+    private final int mColor;
+    private final float mStrokeWidth;
+    private final float mLength;
+    private final float mShadowRadius;
+    private final int mShadowColor;
+
+    private HandSprite(Bitmap bitmap, float anchorX, float anchorY, int color, float strokeWidth,
+            float length, float shadowRadius, int shadowColor) {
+        mBitmap = bitmap;
+        mAnchorX = anchorX;
+        mAnchorY = anchorY;
+        mColor = color;
+        mStrokeWidth = strokeWidth;
+        mLength = length;
+        mShadowRadius = shadowRadius;
+        mShadowColor = shadowColor;
+    }
+
+    /**
+     * Renders a line of {@code length} drawn with {@code paint}'s color, width and cap, with a
+     * shadow as {@code setShadowLayer(shadowRadius, 0, 0, shadowColor)} would draw it.
+     */
+    public static HandSprite create(Paint paint, float length, float shadowRadius,
+            int shadowColor) {
+        float strokeWidth = paint.getStrokeWidth();
+        int pad = (int) Math.ceil(shadowRadius * SHADOW_EXTENT + strokeWidth / 2) + 1;
+        int width = 2 * pad;
+        int height = (int) Math.ceil(length) + 2 * pad;
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+
+        Paint bakePaint = new Paint(paint);
+        bakePaint.setAlpha(255);
+        bakePaint.setShadowLayer(shadowRadius, 0, 0, shadowColor);
+        float anchorX = width / 2f;
+        float anchorY = pad + length;
+        new Canvas(bitmap).drawLine(anchorX, pad, anchorX, anchorY, bakePaint);
+
+        return new HandSprite(bitmap, anchorX, anchorY, bakePaint.getColor(), strokeWidth,
+                length, shadowRadius, shadowColor);
+    }
+
+    /**
+     * Whether {@link #create} would render the same sprite for these arguments.
+     */
+    public boolean matches(Paint paint, float length, float shadowRadius, int shadowColor) {
+        return mColor == (paint.getColor() | Color.BLACK)
+                && mStrokeWidth == paint.getStrokeWidth()
+                && mLength == length
+                && mShadowRadius == shadowRadius
+                && mShadowColor == shadowColor;
+    }
+
+    /**
+     * Draws the hand with its base at ({@code x}, {@code y}).
+     *
+     * @param paint should filter bitmaps and carry the hand's alpha
+     */
+    public void draw(Canvas canvas, float x, float y, Paint paint) {
+        canvas.drawBitmap(mBitmap, x - mAnchorX, y - mAnchorY, paint);
+    }
+
+    public int getByteCount() {
+        return mBitmap.getByteCount();
+    }
+
+    public void recycle() {
+        mBitmap.recycle();
+    }
+}
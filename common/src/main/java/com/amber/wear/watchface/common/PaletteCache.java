@@ -0,0 +1,168 @@
+package com.amber.wear.watchface.common;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.os.AsyncTask;
+import android.support.v7.graphics.Palette;
+
+/**
+ * Palette colors of bundled drawables, computed once per app version and kept in shared
+ * preferences, so engines don't run {@link Palette} on a full-size background every time they
+ * are created.
+ * <p>
+ * Entries are keyed by the drawable's resource name and the app's version code; a new version
+ * computes them again in case the artwork changed. Computing decodes a small copy of the drawable
+ * and runs on a background thread.
+ */
+public class PaletteCache {
+    private static final String PREFERENCES = "palette_cache";
+    /* Palette scales its input down to about this many pixels anyway. */
+    private static final int SAMPLE_WIDTH = 112;
+
+    private static final String KEY_LIGHT_VIBRANT = ".lightVibrant";
+    private static final String KEY_DARK_MUTED = ".darkMuted";
+    private static final String KEY_COMPUTED = ".computed";
+
+    /**
+     * The swatches the faces use. A color is absent when the palette didn't find that swatch.
+     */
+    public static class Colors {
+        private final Integer mLightVibrant;
+        private final Integer mDarkMuted;
+
+        Colors(Integer lightVibrant, Integer darkMuted) {
+            mLightVibrant = lightVibrant;
+            mDarkMuted = darkMuted;
+        }
+
+        /** Same as {@link Palette#getLightVibrantColor(int)}. */
+        public int getLightVibrantColor(int defaultColor) {
+            return mLightVibrant != null ? mLightVibrant : defaultColor;
+        }
+
+        /** Same as {@link Palette#getDarkMutedColor(int)}. */
+        public int getDarkMutedColor(int defaultColor) {
+            return mDarkMuted != null ? mDarkMuted : defaultColor;
+        }
+    }
+
+    public interface Listener {
+        /**
+         * Called on the main thread; right away if the colors were cached.
+         */
+        void onColors(Colors colors);
+    }
+
+    /**
+     * A pending {@link #load}; cancel it when the listener goes away.
+     */
+    public static class Request {
+        private final AsyncTask<Void, Void, Colors> mTask;
+
+        Request(AsyncTask<Void, Void, Colors> task) {
+            mTask = task;
+        }
+
+        /**
+         * Makes sure the listener isn't called any more. The colors are still saved if they are
+         * being computed.
+         */
+        public void cancel() {
+            if (mTask != null) {
+                mTask.cancel(false);
+            }
+        }
+    }
+
+    private PaletteCache() {
+    }
+
+    /**
+     * Hands the colors of drawable {@code resId} to {@code listener}, computing them first if this
+     * version of the app hasn't yet. The listener isn't called if the drawable can't be decoded.
+     *
+     * @return the request, to cancel when the listener goes away
+     */
+    public static Request load(Context context, final int resId, final Listener listener) {
+        final Context appContext = context.getApplicationContext();
+        final SharedPreferences preferences =
+                appContext.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+        final String key = getKey(appContext, resId);
+        if (preferences.getBoolean(key + KEY_COMPUTED, false)) {
+            listener.onColors(new Colors(getColor(preferences, key + KEY_LIGHT_VIBRANT),
+                    getColor(preferences, key + KEY_DARK_MUTED)));
+            return new Request(null);
+        }
+
+        AsyncTask<Void, Void, Colors> task = new AsyncTask<Void, Void, Colors>() {
+            @Override
+            protected Colors doInBackground(Void... params) {
+                Resources res = appContext.getResources();
+                int width = BitmapLoader.decodeBounds(res, resId).outWidth;
+                Bitmap bitmap = BitmapLoader.decodeScaled(res, resId,
+                        Math.min(1f, SAMPLE_WIDTH / (float) width), false);
+                if (bitmap == null) {
+                    return null;
+                }
+                Palette palette = Palette.from(bitmap).generate();
+                bitmap.recycle();
+                return new Colors(getRgb(palette.getLightVibrantSwatch()),
+                        getRgb(palette.getDarkMutedSwatch()));
+            }
+
+            @Override
+            protected void onPostExecute(Colors colors) {
+                if (colors != null) {
+                    save(preferences, key, colors);
+                    listener.onColors(colors);
+                }
+            }
+
+            @Override
+            protected void onCancelled(Colors colors) {
+                if (colors != null) {
+                    save(preferences, key, colors);
+                }
+            }
+        };
+        task.execute();
+        return new Request(task);
+    }
+
+    private static void save(SharedPreferences preferences, String key, Colors colors) {
+        SharedPreferences.Editor editor = preferences.edit();
+        putColor(editor, key + KEY_LIGHT_VIBRANT, colors.mLightVibrant);
+        putColor(editor, key + KEY_DARK_MUTED, colors.mDarkMuted);
+        editor.putBoolean(key + KEY_COMPUTED, true).apply();
+    }
+
+    private static String getKey(Context context, int resId) {
+        int versionCode;
+        try {
+            versionCode = context.getPackageManager()
+                    .getPackageInfo(context.getPackageName(), 0).versionCode;
+        } catch (PackageManager.NameNotFoundException e) {
+            versionCode = 0;
+        }
+        return context.getResources().getResourceEntryName(resId) + "@" + versionCode;
+    }
+
+    private static Integer getRgb(Palette.Swatch swatch) {
+        return swatch != null ? swatch.getRgb() : null;
+    }
+
+    private static Integer getColor(SharedPreferences preferences, String key) {
+        return preferences.contains(key) ? preferences.getInt(key, 0) : null;
+    }
+
+    private static void putColor(SharedPreferences.Editor editor, String key, Integer color) {
+        if (color != null) {
+            editor.putInt(key, color);
+        } else {
+            editor.remove(key);
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package com.amber.wear.watchface.common;
+
+import android.os.Handler;
+import android.os.Message;
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Schedules interactive-mode redraws for a watch face engine. Instead of invalidating on a fixed
+ * 1 Hz timer, the handler sleeps until the next moment the face says something visible changes
+ * (next second, next minute) and redraws straight away when new data arrives.
+ * <p>
+ * It also counts how many redraws were skipped compared with the fixed 1 Hz loop the faces used
+ * before, so the saving can be checked on a device with {@link #dump(PrintWriter)}.
+ */
+public class RedrawScheduler {
+    private static final String TAG = "RedrawScheduler";
+
+    /**
+     * Returned by {@link Client#getNextRedrawTime(long)} when nothing changes until new data
+     * arrives.
+     */
+    public static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    /**
+     * Update rate of the fixed timer this scheduler replaces.
+     */
+    private static final long LEGACY_UPDATE_RATE_MS = TimeUnit.SECONDS.toMillis(1);
+
+    private static final long MINUTE_MS = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * Handler message id for a scheduled redraw.
+     */
+    private static final int MSG_REDRAW = 0;
+
+    /**
+     * Implemented by the engines. {@link #invalidate()} is already provided by
+     * {@code CanvasWatchFaceService.Engine}.
+     */
+    public interface Client {
+        /**
+         * Returns whether periodic redraws are wanted, normally visible and not in ambient mode.
+         */
+        boolean shouldTimerBeRunning();
+
+        /**
+         * Returns the wall clock time of the next visible change after {@code now}, or
+         * {@link #NO_DEADLINE}.
+         */
+        long getNextRedrawTime(long now);
+
+        void invalidate();
+    }
+
+    private final Client mClient;
+    private final Handler mHandler = new SchedulerHandler(this);
+
+    private boolean mRunning;
+    private long mRunningSince;
+    private long mRedrawCount;
+    private long mLegacyRedrawCount;
+    /* Deadline of the delayed redraw that is pending, and of the one that last fired. */
+    private long mPendingDeadline = NO_DEADLINE;
+    private long mFrameDeadline = NO_DEADLINE;
+
+    public RedrawScheduler(Client client) {
+        mClient = client;
+    }
+
+    /**
+     * Returns the start of the second following {@code now}.
+     */
+    public static long nextSecond(long now) {
+        return now - now % LEGACY_UPDATE_RATE_MS + LEGACY_UPDATE_RATE_MS;
+    }
+
+    /**
+     * Returns the start of the minute following {@code now}.
+     */
+    public static long nextMinute(long now) {
+        return now - now % MINUTE_MS + MINUTE_MS;
+    }
+
+    /**
+     * Starts/stops the redraws based on {@link Client#shouldTimerBeRunning()}. Call it wherever
+     * the visibility or ambient state changes.
+     */
+    public void update() {
+        mHandler.removeMessages(MSG_REDRAW);
+        mPendingDeadline = NO_DEADLINE;
+        if (mClient.shouldTimerBeRunning()) {
+            if (!mRunning) {
+                mRunning = true;
+                mRunningSince = System.currentTimeMillis();
+            }
+            mHandler.sendEmptyMessage(MSG_REDRAW);
+        } else {
+            stopCounting();
+        }
+    }
+
+    /**
+     * Redraws now because new data arrived, then goes back to waiting for the next deadline.
+     */
+    public void onDataChanged() {
+        if (mRunning) {
+            mHandler.removeMessages(MSG_REDRAW);
+            mPendingDeadline = NO_DEADLINE;
+            mHandler.sendEmptyMessage(MSG_REDRAW);
+        } else {
+            mClient.invalidate();
+        }
+    }
+
+    /**
+     * Cancels pending redraws. Call from {@code onDestroy}.
+     */
+    public void stop() {
+        mHandler.removeMessages(MSG_REDRAW);
+        stopCounting();
+    }
+
+    /**
+     * Returns the deadline of the scheduled redraw behind the frame being drawn, once; or
+     * {@link #NO_DEADLINE} if the frame wasn't a scheduled redraw (new data, system redraws).
+     */
+    public long takeFrameDeadline() {
+        long deadline = mFrameDeadline;
+        mFrameDeadline = NO_DEADLINE;
+        return deadline;
+    }
+
+    public long getRedrawCount() {
+        return mRedrawCount;
+    }
+
+    /**
+     * Returns how many fewer redraws were done than the fixed 1 Hz timer would have done over the
+     * same running time.
+     */
+    public long getSkippedRedrawCount() {
+        long legacy = mLegacyRedrawCount;
+        if (mRunning) {
+            legacy += legacyRedrawsBetween(mRunningSince, System.currentTimeMillis());
+        }
+        return legacy - mRedrawCount;
+    }
+
+    public void dump(PrintWriter writer) {
+        writer.println("redraws: " + mRedrawCount + " done, " + getSkippedRedrawCount()
+                + " skipped compared with a 1 Hz timer");
+    }
+
+    private void handleRedrawMessage() {
+        mFrameDeadline = mPendingDeadline;
+        mPendingDeadline = NO_DEADLINE;
+        mClient.invalidate();
+        mRedrawCount++;
+        if (mClient.shouldTimerBeRunning()) {
+            long now = System.currentTimeMillis();
+            long next = mClient.getNextRedrawTime(now);
+            if (next != NO_DEADLINE) {
+                mPendingDeadline = next;
+                mHandler.sendEmptyMessageDelayed(MSG_REDRAW, Math.max(0, next - now));
+            }
+        }
+    }
+
+    private void stopCounting() {
+        if (!mRunning) {
+            return;
+        }
+        mRunning = false;
+        mLegacyRedrawCount += legacyRedrawsBetween(mRunningSince, System.currentTimeMillis());
+        Log.i(TAG, "skipped " + getSkippedRedrawCount() + " redraws, did " + mRedrawCount);
+    }
+
+    /**
+     * The old loop redrew once when started and then on every second boundary.
+     */
+    private static long legacyRedrawsBetween(long start, long end) {
+        return 1 + end / LEGACY_UPDATE_RATE_MS - start / LEGACY_UPDATE_RATE_MS;
+    }
+
+    private static class SchedulerHandler extends Handler {
+        private final WeakReference<RedrawScheduler> mWeakReference;
+
+        SchedulerHandler(RedrawScheduler reference) {
+            mWeakReference = new WeakReference<>(reference);
+        }
+
+        @Override
+        public void handleMessage(Message msg) {
+            RedrawScheduler scheduler = mWeakReference.get();
+            if (scheduler != null) {
+                switch (msg.what) {
+                    case MSG_REDRAW:
+                        scheduler.handleRedrawMessage();
+                        break;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.amber.wear.watchface.common;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.util.Log;
+
+/**
+ * Copies of a hand or gauge pointer bitmap pre-rotated to every position it can be shown at, so
+ * a frame can draw it with a plain blit instead of a rotated, filtered one.
+ * <p>
+ * The source is rotated about its centre. Each sprite is cropped to the rotated bounds of the
+ * source's non-transparent pixels, which keeps long, thin hands cheap to store.
+ */
+public class RotatedSpriteAtlas {
+    private static final String TAG = "RotatedSpriteAtlas";
+
+    private final Bitmap[] mSprites;
+    private final int[] mLefts;
+    private final int[] mTops;
+    private final float mDegreesPerPosition;
+    private final long mByteCount;
+
+    private RotatedSpriteAtlas(Bitmap[] sprites, int[] lefts, int[] tops,
+            float degreesPerPosition, long byteCount) {
+        mSprites = sprites;
+        mLefts = lefts;
+        mTops = tops;
+        mDegreesPerPosition = degreesPerPosition;
+        mByteCount = byteCount;
+    }
+
+    /**
+     * Rotates {@code source} to {@code positions} angles, {@code degreesPerPosition} apart.
+     *
+     * @return the atlas, or null if it would need more than {@code maxBytes}
+     */
+    public static RotatedSpriteAtlas create(Bitmap source, int positions, float degreesPerPosition,
+            long maxBytes) {
+        Rect opaque = findOpaqueBounds(source);
+        if (opaque.isEmpty()) {
+            return null;
+        }
+        float pivotX = source.getWidth() / 2f;
+        float pivotY = source.getHeight() / 2f;
+        float[] corners = {
+                opaque.left - pivotX, opaque.top - pivotY,
+                opaque.right - pivotX, opaque.top - pivotY,
+                opaque.right - pivotX, opaque.bottom - pivotY,
+                opaque.left - pivotX, opaque.bottom - pivotY};
+        float[] rotated = new float[8];
+        Matrix matrix = new Matrix();
+
+        /* Measure every sprite first so the cap is checked before anything is allocated. */
+        int[] lefts = new int[positions];
+        int[] tops = new int[positions];
+        int[] widths = new int[positions];
+        int[] heights = new int[positions];
+        long byteCount = 0;
+        for (int i = 0; i < positions; i++) {
+            matrix.setRotate(i * degreesPerPosition);
+            matrix.mapPoints(rotated, corners);
+            float minX = Math.min(Math.min(rotated[0], rotated[2]), Math.min(rotated[4], rotated[6]));
+            float maxX = Math.max(Math.max(rotated[0], rotated[2]), Math.max(rotated[4], rotated[6]));
+            float minY = Math.min(Math.min(rotated[1], rotated[3]), Math.min(rotated[5], rotated[7]));
+            float maxY = Math.max(Math.max(rotated[1], rotated[3]), Math.max(rotated[5], rotated[7]));
+            lefts[i] = (int) Math.floor(minX) - 1;
+            tops[i] = (int) Math.floor(minY) - 1;
+            widths[i] = (int) Math.ceil(maxX) + 1 - lefts[i];
+            heights[i] = (int) Math.ceil(maxY) + 1 - tops[i];
+            byteCount += widths[i] * heights[i] * 4L;
+        }
+        if (byteCount > maxBytes) {
+            Log.i(TAG, "atlas needs " + byteCount + " bytes, cap is " + maxBytes);
+            return null;
+        }
+
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.FILTER_BITMAP_FLAG);
+        Bitmap[] sprites = new Bitmap[positions];
+        for (int i = 0; i < positions; i++) {
+            sprites[i] = Bitmap.createBitmap(widths[i], heights[i], Bitmap.Config.ARGB_8888);
+            Canvas canvas = new Canvas(sprites[i]);
+            canvas.translate(-lefts[i], -tops[i]);
+            canvas.rotate(i * degreesPerPosition);
+            canvas.drawBitmap(source, -pivotX, -pivotY, paint);
+        }
+        return new RotatedSpriteAtlas(sprites, lefts, tops, degreesPerPosition, byteCount);
+    }
+
+    /**
+     * Returns the sprite index nearest to {@code degrees}.
+     */
+    public int indexFor(float degrees) {
+        int index = Math.round(degrees / mDegreesPerPosition) % mSprites.length;
+        return index < 0 ? index + mSprites.length : index;
+    }
+
+    /**
+     * Draws the sprite at {@code index} with the source's centre on the given pivot.
+     */
+    public void draw(Canvas canvas, int index, float pivotX, float pivotY, Paint paint) {
+        canvas.drawBitmap(mSprites[index], pivotX + mLefts[index], pivotY + mTops[index], paint);
+    }
+
+    public long getByteCount() {
+        return mByteCount;
+    }
+
+    public void recycle() {
+        for (Bitmap sprite : mSprites) {
+            sprite.recycle();
+        }
+    }
+
+    private static Rect findOpaqueBounds(Bitmap source) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        int[] row = new int[width];
+        Rect bounds = new Rect(width, height, 0, 0);
+        for (int y = 0; y < height; y++) {
+            source.getPixels(row, 0, width, 0, y, width, 1);
+            for (int x = 0; x < width; x++) {
+                if (Color.alpha(row[x]) != 0) {
+                    bounds.union(x, y, x + 1, y + 1);
+                }
+            }
+        }
+        return bounds;
+    }
+}
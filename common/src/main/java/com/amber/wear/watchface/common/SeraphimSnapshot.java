@@ -0,0 +1,123 @@
+package com.amber.wear.watchface.common;
+
+/**
+ * The handheld's state as one fixed-layout message, replacing the separate decimal string
+ * messages for phone battery and temperature.
+ * <p>
+ * Layout, big-endian, {@value #SIZE} bytes:
+ * <pre>
+ *  0  version        byte   {@link #VERSION}
+ *  1  flags          byte   {@link #FLAG_BATTERY} | {@link #FLAG_TEMPERATURE}
+ *  2  battery        byte   phone battery percent, 0 to 100
+ *  3  (reserved)     byte   0
+ *  4  temperature    short  tenths of a degree Celsius
+ *  6  (reserved)     short  0
+ *  8  timestamp      long   handheld wall clock time the values were read, in ms
+ * </pre>
+ * A field is only meaningful when its flag is set. A change to the layout bumps the version, and
+ * readers reject versions they don't know.
+ * <p>
+ * The getters read straight from the received array, so decoding allocates nothing.
+ */
+public class SeraphimSnapshot {
+    /** Path of the message carrying a snapshot. */
+    public static final String PATH = "/seraphim-update-snapshot";
+
+    public static final int VERSION = 1;
+    public static final int SIZE = 16;
+
+    public static final int FLAG_BATTERY = 1;
+    public static final int FLAG_TEMPERATURE = 1 << 1;
+
+    private static final int OFFSET_VERSION = 0;
+    private static final int OFFSET_FLAGS = 1;
+    private static final int OFFSET_BATTERY = 2;
+    private static final int OFFSET_TEMPERATURE = 4;
+    private static final int OFFSET_TIMESTAMP = 8;
+
+    private SeraphimSnapshot() {
+    }
+
+    /**
+     * Encodes a snapshot. Values whose flag isn't set in {@code flags} are written as 0.
+     *
+     * @param batteryLevel       percent, clamped to 0..100
+     * @param temperatureTenths  tenths of a degree Celsius, clamped to the range of a short
+     */
+    public static byte[] encode(int flags, int batteryLevel, int temperatureTenths,
+            long timestamp) {
+        byte[] data = new byte[SIZE];
+        data[OFFSET_VERSION] = VERSION;
+        data[OFFSET_FLAGS] = (byte) flags;
+        if ((flags & FLAG_BATTERY) != 0) {
+            data[OFFSET_BATTERY] = (byte) Math.max(0, Math.min(100, batteryLevel));
+        }
+        if ((flags & FLAG_TEMPERATURE) != 0) {
+            int tenths = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, temperatureTenths));
+            data[OFFSET_TEMPERATURE] = (byte) (tenths >> 8);
+            data[OFFSET_TEMPERATURE + 1] = (byte) tenths;
+        }
+        for (int i = 0; i < 8; i++) {
+            data[OFFSET_TIMESTAMP + i] = (byte) (timestamp >> (56 - 8 * i));
+        }
+        return data;
+    }
+
+    /**
+     * Whether {@code data} is a snapshot of a version this code reads.
+     */
+    public static boolean isValid(byte[] data) {
+        return data != null && data.length >= SIZE && data[OFFSET_VERSION] == VERSION;
+    }
+
+    public static boolean hasBattery(byte[] data) {
+        return (data[OFFSET_FLAGS] & FLAG_BATTERY) != 0;
+    }
+
+    public static boolean hasTemperature(byte[] data) {
+        return (data[OFFSET_FLAGS] & FLAG_TEMPERATURE) != 0;
+    }
+
+    public static int getBatteryLevel(byte[] data) {
+        return data[OFFSET_BATTERY] & 0xff;
+    }
+
+    public static int getTemperatureTenths(byte[] data) {
+        return (short) (((data[OFFSET_TEMPERATURE] & 0xff) << 8)
+                | (data[OFFSET_TEMPERATURE + 1] & 0xff));
+    }
+
+    public static long getTimestamp(byte[] data) {
+        long timestamp = 0;
+        for (int i = 0; i < 8; i++) {
+            timestamp = (timestamp << 8) | (data[OFFSET_TIMESTAMP + i] & 0xff);
+        }
+        return timestamp;
+    }
+
+    /**
+     * Parses the leading, optionally signed, decimal number of a legacy message such as "87" or
+     * "21°" without creating a String.
+     *
+     * @return the number, or {@code fallback} if the payload doesn't start with one
+     */
+    public static int parseLegacyValue(byte[] data, int fallback) {
+        if (data == null || data.length == 0) {
+            return fallback;
+        }
+        int i = 0;
+        boolean negative = data[0] == '-';
+        if (negative) {
+            i++;
+        }
+        int value = 0;
+        int digits = 0;
+        for (; i < data.length && data[i] >= '0' && data[i] <= '9'; i++, digits++) {
+            value = value * 10 + (data[i] - '0');
+        }
+        if (digits == 0) {
+            return fallback;
+        }
+        return negative ? -value : value;
+    }
+}
@@ -0,0 +1,189 @@
+package com.amber.wear.watchface.common;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Startup timing for one engine, from its construction in onCreateEngine to the end of its first
+ * onDraw, broken down into the phases below.
+ * <p>
+ * Each startup is logged under the {@code StartupTrace} tag and its times are kept in shared
+ * preferences, the last {@value #MAX_SAMPLES} per face and phase, separately for the first engine
+ * of a process (cold) and later ones (warm). The services' dump prints their percentiles, so
+ * repeated runs add up: re-select the face, or {@code adb shell am force-stop} the app first for
+ * a cold run, then {@code adb shell dumpsys activity service <watch face service>}. Passing
+ * {@value #ARG_RESET} to the dump starts over. The startupBenchmark task of
+ * gradle/device-benchmarks.gradle drives these runs and compares them with a stored baseline.
+ * <p>
+ * Decode is tier loading, which decodes straight to the drawn size; scale is the rest of the
+ * layout work (static layers, sprite and glyph atlases, paths). A phase may be entered more than
+ * once and on any thread, the times add up. A phase still running at the first frame, such as a
+ * palette computed in the background, is saved when it ends; once saved, a phase isn't traced
+ * again, so later surface changes don't count.
+ */
+public class StartupTrace {
+    private static final String TAG = "StartupTrace";
+    private static final String PREFERENCES = "startup_trace";
+    private static final int MAX_SAMPLES = 50;
+
+    /** Dump argument that clears the saved startups of the face. */
+    public static final String ARG_RESET = "--reset-startup-trace";
+
+    public static final int PHASE_DECODE = 0;
+    public static final int PHASE_SCALE = 1;
+    public static final int PHASE_TYPEFACE = 2;
+    public static final int PHASE_PALETTE = 3;
+    /** The first onDraw. */
+    public static final int PHASE_FIRST_DRAW = 4;
+    /** Engine construction to the end of the first onDraw. */
+    private static final int PHASE_TOTAL = 5;
+    private static final int PHASE_COUNT = 6;
+
+    private static final String[] PHASE_NAMES =
+            {"decode", "scale", "typeface", "palette", "first draw", "total"};
+
+    /* Whether an engine of this process has been traced yet. */
+    private static boolean sProcessTraced;
+
+    private final SharedPreferences mPreferences;
+    private final String mName;
+    private final boolean mCold;
+    private final long mStartNanos;
+    private final long[] mPhaseStarts = new long[PHASE_COUNT];
+    /* Time spent in each phase so far; -1 if it hasn't run. */
+    private final long[] mPhaseNanos = new long[PHASE_COUNT];
+    private final boolean[] mRunning = new boolean[PHASE_COUNT];
+    private final boolean[] mSaved = new boolean[PHASE_COUNT];
+    private boolean mFirstFrameDrawn;
+
+    public StartupTrace(Context context, String name) {
+        mStartNanos = System.nanoTime();
+        mPreferences = context.getApplicationContext()
+                .getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+        mName = name;
+        synchronized (StartupTrace.class) {
+            mCold = !sProcessTraced;
+            sProcessTraced = true;
+        }
+        Arrays.fill(mPhaseNanos, -1);
+    }
+
+    public synchronized void begin(int phase) {
+        if (!mSaved[phase]) {
+            mPhaseStarts[phase] = System.nanoTime();
+            mRunning[phase] = true;
+        }
+    }
+
+    public synchronized void end(int phase) {
+        if (!mRunning[phase]) {
+            return;
+        }
+        mRunning[phase] = false;
+        mPhaseNanos[phase] = Math.max(mPhaseNanos[phase], 0)
+                + System.nanoTime() - mPhaseStarts[phase];
+        if (mFirstFrameDrawn) {
+            save(phase);
+        }
+    }
+
+    public synchronized boolean isFirstFrameDrawn() {
+        return mFirstFrameDrawn;
+    }
+
+    /**
+     * Ends {@link #PHASE_FIRST_DRAW}, then logs and saves every phase that has run and isn't
+     * still running.
+     */
+    public synchronized void firstFrameDrawn() {
+        end(PHASE_FIRST_DRAW);
+        mPhaseNanos[PHASE_TOTAL] = System.nanoTime() - mStartNanos;
+        mFirstFrameDrawn = true;
+
+        StringBuilder line = new StringBuilder(mName).append(mCold ? " cold" : " warm")
+                .append(" startup (ms):");
+        for (int phase = 0; phase < PHASE_COUNT; phase++) {
+            if (mPhaseNanos[phase] >= 0 && !mRunning[phase]) {
+                line.append(' ').append(PHASE_NAMES[phase]).append('=')
+                        .append(TimeUnit.NANOSECONDS.toMillis(mPhaseNanos[phase]));
+                save(phase);
+            }
+        }
+        Log.i(TAG, line.toString());
+    }
+
+    /**
+     * Milliseconds since the engine was constructed.
+     */
+    public long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - mStartNanos);
+    }
+
+    private void save(int phase) {
+        mSaved[phase] = true;
+        String key = getKey(mName, phase, mCold);
+        String samples = mPreferences.getString(key, "");
+        String[] values = TextUtils.isEmpty(samples) ? new String[0] : samples.split(",");
+        StringBuilder out = new StringBuilder();
+        for (int i = Math.max(0, values.length - MAX_SAMPLES + 1); i < values.length; i++) {
+            out.append(values[i]).append(',');
+        }
+        out.append(TimeUnit.NANOSECONDS.toMicros(mPhaseNanos[phase]));
+        mPreferences.edit().putString(key, out.toString()).apply();
+    }
+
+    private static String getKey(String name, int phase, boolean cold) {
+        return name + "." + PHASE_NAMES[phase] + (cold ? ".cold" : ".warm");
+    }
+
+    /**
+     * Prints the percentiles of the saved startups of face {@code name}, or clears them if the
+     * dump {@code args} contain {@link #ARG_RESET}.
+     */
+    public static void dump(Context context, String name, PrintWriter writer, String[] args) {
+        SharedPreferences preferences = context.getApplicationContext()
+                .getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+        if (args != null && Arrays.asList(args).contains(ARG_RESET)) {
+            SharedPreferences.Editor editor = preferences.edit();
+            for (String key : preferences.getAll().keySet()) {
+                if (key.startsWith(name + ".")) {
+                    editor.remove(key);
+                }
+            }
+            /* Committed before the dump returns, so the next run starts from nothing. */
+            editor.commit();
+            writer.println(name + " startup trace reset");
+            return;
+        }
+        writer.println(name + " startup (us):");
+        for (int cold = 1; cold >= 0; cold--) {
+            for (int phase = 0; phase < PHASE_COUNT; phase++) {
+                String samples = preferences.getString(getKey(name, phase, cold == 1), "");
+                if (TextUtils.isEmpty(samples)) {
+                    continue;
+                }
+                String[] values = samples.split(",");
+                long[] micros = new long[values.length];
+                for (int i = 0; i < values.length; i++) {
+                    micros[i] = Long.parseLong(values[i]);
+                }
+                Arrays.sort(micros);
+                writer.println("  " + (cold == 1 ? "cold " : "warm ") + PHASE_NAMES[phase]
+                        + ": n=" + micros.length + " p50=" + percentile(micros, 50)
+                        + " p90=" + percentile(micros, 90) + " max=" + micros[micros.length - 1]);
+            }
+        }
+    }
+
+    /* Nearest-rank percentile of sorted values. */
+    private static long percentile(long[] sorted, int percent) {
+        int rank = (sorted.length * percent + 99) / 100;
+        return sorted[Math.max(rank, 1) - 1];
+    }
+}
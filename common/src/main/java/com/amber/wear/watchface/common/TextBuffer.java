@@ -0,0 +1,79 @@
+package com.amber.wear.watchface.common;
+
+/**
+ * A fixed-capacity, reusable piece of text. Faces keep one per text they draw and rewrite it in
+ * place, so formatting doesn't create Strings on the frame path. Appends past the capacity are
+ * dropped.
+ */
+public class TextBuffer implements CharSequence {
+    private final char[] mChars;
+    private int mLength;
+
+    public TextBuffer(int capacity) {
+        mChars = new char[capacity];
+    }
+
+    /**
+     * Returns the backing array, for {@code Canvas.drawText(char[], int, int, ...)}. Only the
+     * first {@link #length()} characters are valid.
+     */
+    public char[] chars() {
+        return mChars;
+    }
+
+    @Override
+    public int length() {
+        return mLength;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return mChars[index];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return new String(mChars, start, end - start);
+    }
+
+    public TextBuffer clear() {
+        mLength = 0;
+        return this;
+    }
+
+    public TextBuffer append(char c) {
+        if (mLength < mChars.length) {
+            mChars[mLength++] = c;
+        }
+        return this;
+    }
+
+    public TextBuffer append(CharSequence text) {
+        for (int i = 0; i < text.length(); i++) {
+            append(text.charAt(i));
+        }
+        return this;
+    }
+
+    /**
+     * Appends a non-negative number in ASCII digits.
+     */
+    public TextBuffer append(int value) {
+        int start = mLength;
+        do {
+            append((char) ('0' + value % 10));
+            value /= 10;
+        } while (value > 0);
+        for (int i = start, j = mLength - 1; i < j; i++, j--) {
+            char c = mChars[i];
+            mChars[i] = mChars[j];
+            mChars[j] = c;
+        }
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return new String(mChars, 0, mLength);
+    }
+}
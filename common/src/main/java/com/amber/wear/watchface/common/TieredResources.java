@@ -0,0 +1,228 @@
+package com.amber.wear.watchface.common;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads and drops an engine's bitmaps in tiers: those drawn in every mode, those drawn only in
+ * interactive mode and those drawn only in ambient mode.
+ * <p>
+ * The tiers for the current mode are always loaded. The other mode's tier is kept across a mode
+ * change while everything fits in the budget, and dropped on any memory trim callback, after
+ * which the {@link BitmapPool}'s unused bitmaps are freed too. The bytes that actually came back
+ * are logged and shown in the dump.
+ * <p>
+ * Safe to use from a worker thread, e.g. to load the first tiers off the main thread at startup;
+ * client callbacks run with the manager's lock held.
+ */
+public class TieredResources implements ComponentCallbacks2 {
+    private static final String TAG = "TieredResources";
+
+    public static final int TIER_ALWAYS = 0;
+    public static final int TIER_INTERACTIVE = 1;
+    public static final int TIER_AMBIENT = 2;
+    private static final int TIER_COUNT = 3;
+    private static final String[] TIER_NAMES = {"always", "interactive", "ambient"};
+
+    private static final long DEFAULT_BUDGET_BYTES = 1024 * 1024;
+
+    /* Every engine's manager until it is released, for the dump. */
+    private static final List<TieredResources> sInstances = new ArrayList<>();
+
+    /**
+     * Implemented by the engines.
+     */
+    public interface Client {
+        /**
+         * Takes the bitmaps of {@code tier} for the current surface.
+         *
+         * @return the bytes they take
+         */
+        long loadTier(int tier);
+
+        /**
+         * Gives back the bitmaps of {@code tier} and forgets them.
+         */
+        void releaseTier(int tier);
+    }
+
+    private final Context mContext;
+    private final String mName;
+    private final Client mClient;
+    private final boolean[] mLoaded = new boolean[TIER_COUNT];
+    private final long[] mTierBytes = new long[TIER_COUNT];
+    private long mBudgetBytes = DEFAULT_BUDGET_BYTES;
+    private boolean mAmbient;
+    /* Nothing is loaded before the first surface change. */
+    private boolean mStarted;
+
+    private int mTierLoads;
+    private int mTierReleases;
+    private int mTrims;
+    private long mReclaimedBytes;
+
+    public TieredResources(Context context, String name, Client client) {
+        mContext = context.getApplicationContext();
+        mName = name;
+        mClient = client;
+        mContext.registerComponentCallbacks(this);
+        synchronized (sInstances) {
+            sInstances.add(this);
+        }
+    }
+
+    /**
+     * Sets how many bytes all loaded tiers may take before the tier the current mode doesn't
+     * draw is dropped.
+     */
+    public synchronized void setBudget(long bytes) {
+        mBudgetBytes = bytes;
+        fitBudget();
+    }
+
+    /**
+     * Loads the tiers the mode needs. Call before drawing in the new mode.
+     */
+    public synchronized void setAmbient(boolean ambient) {
+        mAmbient = ambient;
+        if (mStarted) {
+            loadNeeded();
+            fitBudget();
+        }
+    }
+
+    /**
+     * Drops every tier and loads the ones the current mode needs, e.g. after a surface change.
+     */
+    public synchronized void reload() {
+        long start = System.nanoTime();
+        mStarted = true;
+        for (int tier = 0; tier < TIER_COUNT; tier++) {
+            releaseTier(tier);
+        }
+        loadNeeded();
+        Log.i(TAG, mName + ": tiers loaded in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms, "
+                + getLoadedBytes() + " bytes, pool holds "
+                + BitmapPool.getInstance().getResidentBytes() + " bytes");
+    }
+
+    /**
+     * Drops everything and stops listening for trim callbacks. Call from the engine's onDestroy.
+     */
+    public void release() {
+        synchronized (this) {
+            for (int tier = 0; tier < TIER_COUNT; tier++) {
+                releaseTier(tier);
+            }
+            mStarted = false;
+        }
+        mContext.unregisterComponentCallbacks(this);
+        synchronized (sInstances) {
+            sInstances.remove(this);
+        }
+    }
+
+    public synchronized boolean isLoaded(int tier) {
+        return mLoaded[tier];
+    }
+
+    public synchronized long getLoadedBytes() {
+        long bytes = 0;
+        for (int tier = 0; tier < TIER_COUNT; tier++) {
+            bytes += mTierBytes[tier];
+        }
+        return bytes;
+    }
+
+    @Override
+    public synchronized void onTrimMemory(int level) {
+        if (level < TRIM_MEMORY_RUNNING_MODERATE) {
+            return;
+        }
+        mTrims++;
+        releaseTier(mAmbient ? TIER_INTERACTIVE : TIER_AMBIENT);
+        long reclaimed = BitmapPool.getInstance().trimUnused(0);
+        mReclaimedBytes += reclaimed;
+        Log.i(TAG, mName + ": trim level " + level + " reclaimed " + reclaimed + " bytes");
+    }
+
+    @Override
+    public void onLowMemory() {
+        onTrimMemory(TRIM_MEMORY_COMPLETE);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+
+    /**
+     * Dumps the managers of all live engines.
+     */
+    public static void dumpAll(PrintWriter writer) {
+        synchronized (sInstances) {
+            for (TieredResources resources : sInstances) {
+                resources.dump(writer);
+            }
+        }
+    }
+
+    private synchronized void dump(PrintWriter writer) {
+        writer.print(mName + " tiers:");
+        for (int tier = 0; tier < TIER_COUNT; tier++) {
+            writer.print(" " + TIER_NAMES[tier] + "=" + (mLoaded[tier] ? mTierBytes[tier] : "-"));
+        }
+        writer.println(" (budget " + mBudgetBytes + "), " + mTierLoads + " loads, "
+                + mTierReleases + " releases, " + mTrims + " trims reclaimed "
+                + mReclaimedBytes + " bytes");
+    }
+
+    /**
+     * Adds up the bytes of {@code bitmaps}, skipping nulls; for {@link Client#loadTier(int)}.
+     */
+    public static long getByteCount(Bitmap... bitmaps) {
+        long bytes = 0;
+        for (Bitmap bitmap : bitmaps) {
+            if (bitmap != null) {
+                bytes += bitmap.getByteCount();
+            }
+        }
+        return bytes;
+    }
+
+    private void loadNeeded() {
+        loadTier(TIER_ALWAYS);
+        loadTier(mAmbient ? TIER_AMBIENT : TIER_INTERACTIVE);
+    }
+
+    private void fitBudget() {
+        if (getLoadedBytes() > mBudgetBytes) {
+            releaseTier(mAmbient ? TIER_INTERACTIVE : TIER_AMBIENT);
+        }
+    }
+
+    private void loadTier(int tier) {
+        if (!mLoaded[tier]) {
+            mTierBytes[tier] = mClient.loadTier(tier);
+            mLoaded[tier] = true;
+            mTierLoads++;
+        }
+    }
+
+    private void releaseTier(int tier) {
+        if (mLoaded[tier]) {
+            mClient.releaseTier(tier);
+            mLoaded[tier] = false;
+            mTierBytes[tier] = 0;
+            mTierReleases++;
+        }
+    }
+}
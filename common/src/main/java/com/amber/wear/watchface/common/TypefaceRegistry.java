@@ -0,0 +1,75 @@
+package com.amber.wear.watchface.common;
+
+import android.content.res.AssetManager;
+import android.graphics.Typeface;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Process-wide cache of typefaces loaded from assets. {@link Typeface#createFromAsset} parses the
+ * font file and keeps a native copy on every call, so every paint of every engine sharing one
+ * typeface saves both.
+ * <p>
+ * Typefaces are loaded on first use and kept for the life of the process. The dump shows how often
+ * a load was avoided and roughly what that saved.
+ */
+public class TypefaceRegistry {
+    private static final Map<String, Typeface> sTypefaces = new HashMap<>();
+    /* Size of each font file, or -1 if unknown. */
+    private static final Map<String, Long> sFileBytes = new HashMap<>();
+    private static long sHits;
+    private static long sMisses;
+    private static long sLoadNanos;
+
+    private TypefaceRegistry() {
+    }
+
+    /**
+     * Returns the typeface for the font at {@code path} in the assets, loading it the first time.
+     */
+    public static synchronized Typeface get(AssetManager assets, String path) {
+        Typeface typeface = sTypefaces.get(path);
+        if (typeface != null) {
+            sHits++;
+            return typeface;
+        }
+        sMisses++;
+        long start = System.nanoTime();
+        typeface = Typeface.createFromAsset(assets, path);
+        sLoadNanos += System.nanoTime() - start;
+        sTypefaces.put(path, typeface);
+        sFileBytes.put(path, getFileBytes(assets, path));
+        return typeface;
+    }
+
+    public static synchronized void dump(PrintWriter writer) {
+        long averageLoadMicros = sMisses == 0 ? 0 : sLoadNanos / sMisses / 1000;
+        writer.println("typefaces: " + sTypefaces.size() + " loaded, " + sHits + " hits, "
+                + sMisses + " misses, " + averageLoadMicros + " us per load, ~"
+                + sHits * averageLoadMicros + " us saved");
+        for (Map.Entry<String, Long> entry : sFileBytes.entrySet()) {
+            writer.println("  " + entry.getKey() + ": " + entry.getValue() + " bytes");
+        }
+    }
+
+    private static long getFileBytes(AssetManager assets, String path) {
+        InputStream in = null;
+        try {
+            in = assets.open(path);
+            return in.available();
+        } catch (IOException e) {
+            return -1;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+}
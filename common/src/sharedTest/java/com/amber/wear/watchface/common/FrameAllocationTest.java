@@ -0,0 +1,99 @@
+package com.amber.wear.watchface.common;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Draws a simulated minute of frames per size and mode through the live engine and checks that
+ * steady-state interactive and mute frames allocate nothing.
+ * <p>
+ * Shared by the faces: gradle/device-benchmarks.gradle adds it to a face's instrumented tests and
+ * passes the face's name and watch face service as the {@code face} and {@code watchFaceService}
+ * runner arguments. The test selects the face itself, so the engine runs in the test's process.
+ */
+@RunWith(AndroidJUnit4.class)
+public class FrameAllocationTest {
+    private static final long ENGINE_TIMEOUT_MS = 10000;
+
+    private String mFace;
+    private String mWatchFace;
+
+    @Before
+    public void setUp() {
+        Bundle arguments = InstrumentationRegistry.getArguments();
+        Context context = InstrumentationRegistry.getTargetContext();
+        mFace = arguments.getString("face");
+        mWatchFace = context.getPackageName() + "/" + arguments.getString("watchFaceService");
+        assertNotNull("No face runner argument", mFace);
+        /* Selecting the face goes through the shell, which UiAutomation reaches from API 21. */
+        assumeTrue(Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP);
+    }
+
+    @Test
+    public void framesDoNotAllocate() throws IOException {
+        selectFace();
+        final FrameBenchmark.Target target = awaitTarget();
+        final List<FrameBenchmark.Result> results = new ArrayList<>();
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                results.addAll(FrameBenchmark.run(mFace, target));
+            }
+        });
+        for (FrameBenchmark.Result result : results) {
+            if (result.mode != FrameBenchmark.MODE_AMBIENT) {
+                assertEquals(result.toString(), 0, result.objects);
+            }
+        }
+    }
+
+    /* As selectFace in gradle/device-benchmarks.gradle. */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private void selectFace() throws IOException {
+        ParcelFileDescriptor output = InstrumentationRegistry.getInstrumentation().getUiAutomation()
+                .executeShellCommand("am broadcast"
+                        + " -a com.google.android.wearable.app.DEBUG_SURFACE"
+                        + " --es operation set-watchface --es watchFaceId " + mWatchFace);
+        /* The command has run once its output is drained. */
+        InputStream in = new FileInputStream(output.getFileDescriptor());
+        try {
+            byte[] buffer = new byte[1024];
+            while (in.read(buffer) != -1) {
+            }
+        } finally {
+            in.close();
+            output.close();
+        }
+    }
+
+    private FrameBenchmark.Target awaitTarget() {
+        long deadline = SystemClock.elapsedRealtime() + ENGINE_TIMEOUT_MS;
+        FrameBenchmark.Target target = FrameBenchmark.getTarget(mFace);
+        while (target == null && SystemClock.elapsedRealtime() < deadline) {
+            SystemClock.sleep(100);
+            target = FrameBenchmark.getTarget(mFace);
+        }
+        assertNotNull("No " + mFace + " engine after selecting " + mWatchFace, target);
+        return target;
+    }
+}
@@ -0,0 +1,129 @@
+package com.amber.wear.watchface.common;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SeraphimSnapshotTest {
+    private static final int BOTH = SeraphimSnapshot.FLAG_BATTERY | SeraphimSnapshot.FLAG_TEMPERATURE;
+    private static final long TIMESTAMP = 1507802910123L;
+
+    @Test
+    public void roundTrip() {
+        byte[] data = SeraphimSnapshot.encode(BOTH, 87, 215, TIMESTAMP);
+        assertEquals(SeraphimSnapshot.SIZE, data.length);
+        assertTrue(SeraphimSnapshot.isValid(data));
+        assertTrue(SeraphimSnapshot.hasBattery(data));
+        assertTrue(SeraphimSnapshot.hasTemperature(data));
+        assertEquals(87, SeraphimSnapshot.getBatteryLevel(data));
+        assertEquals(215, SeraphimSnapshot.getTemperatureTenths(data));
+        assertEquals(TIMESTAMP, SeraphimSnapshot.getTimestamp(data));
+    }
+
+    @Test
+    public void layoutIsBigEndian() {
+        byte[] data = SeraphimSnapshot.encode(BOTH, 100, -2, 0x0102030405060708L);
+        assertArrayEquals(new byte[]{
+                1, 3, 100, 0, (byte) 0xff, (byte) 0xfe, 0, 0,
+                1, 2, 3, 4, 5, 6, 7, 8}, data);
+    }
+
+    @Test
+    public void negativeTemperatures() {
+        for (int tenths : new int[]{-1, -5, -215, -400, Short.MIN_VALUE}) {
+            byte[] data = SeraphimSnapshot.encode(SeraphimSnapshot.FLAG_TEMPERATURE, 0, tenths,
+                    TIMESTAMP);
+            assertEquals(tenths, SeraphimSnapshot.getTemperatureTenths(data));
+        }
+    }
+
+    @Test
+    public void temperatureIsClampedToShort() {
+        byte[] data = SeraphimSnapshot.encode(SeraphimSnapshot.FLAG_TEMPERATURE, 0, 40000,
+                TIMESTAMP);
+        assertEquals(Short.MAX_VALUE, SeraphimSnapshot.getTemperatureTenths(data));
+        data = SeraphimSnapshot.encode(SeraphimSnapshot.FLAG_TEMPERATURE, 0, -40000, TIMESTAMP);
+        assertEquals(Short.MIN_VALUE, SeraphimSnapshot.getTemperatureTenths(data));
+    }
+
+    @Test
+    public void batteryBounds() {
+        assertEquals(0, SeraphimSnapshot.getBatteryLevel(
+                SeraphimSnapshot.encode(SeraphimSnapshot.FLAG_BATTERY, 0, 0, TIMESTAMP)));
+        assertEquals(100, SeraphimSnapshot.getBatteryLevel(
+                SeraphimSnapshot.encode(SeraphimSnapshot.FLAG_BATTERY, 100, 0, TIMESTAMP)));
+        assertEquals(0, SeraphimSnapshot.getBatteryLevel(
+                SeraphimSnapshot.encode(SeraphimSnapshot.FLAG_BATTERY, -3, 0, TIMESTAMP)));
+        assertEquals(100, SeraphimSnapshot.getBatteryLevel(
+                SeraphimSnapshot.encode(SeraphimSnapshot.FLAG_BATTERY, 255, 0, TIMESTAMP)));
+    }
+
+    @Test
+    public void unsetFieldsAreAbsentAndZero() {
+        byte[] data = SeraphimSnapshot.encode(0, 87, 215, TIMESTAMP);
+        assertTrue(SeraphimSnapshot.isValid(data));
+        assertFalse(SeraphimSnapshot.hasBattery(data));
+        assertFalse(SeraphimSnapshot.hasTemperature(data));
+        assertEquals(0, SeraphimSnapshot.getBatteryLevel(data));
+        assertEquals(0, SeraphimSnapshot.getTemperatureTenths(data));
+    }
+
+    @Test
+    public void negativeTimestamp() {
+        byte[] data = SeraphimSnapshot.encode(BOTH, 50, 0, -1L);
+        assertEquals(-1L, SeraphimSnapshot.getTimestamp(data));
+    }
+
+    @Test
+    public void unknownVersionIsInvalid() {
+        byte[] data = SeraphimSnapshot.encode(BOTH, 87, 215, TIMESTAMP);
+        data[0] = SeraphimSnapshot.VERSION + 1;
+        assertFalse(SeraphimSnapshot.isValid(data));
+        data[0] = 0;
+        assertFalse(SeraphimSnapshot.isValid(data));
+    }
+
+    @Test
+    public void shortOrMissingBufferIsInvalid() {
+        assertFalse(SeraphimSnapshot.isValid(null));
+        assertFalse(SeraphimSnapshot.isValid(new byte[0]));
+        byte[] data = SeraphimSnapshot.encode(BOTH, 87, 215, TIMESTAMP);
+        byte[] truncated = new byte[SeraphimSnapshot.SIZE - 1];
+        System.arraycopy(data, 0, truncated, 0, truncated.length);
+        assertFalse(SeraphimSnapshot.isValid(truncated));
+    }
+
+    @Test
+    public void longerBufferIsValid() {
+        byte[] data = SeraphimSnapshot.encode(BOTH, 87, 215, TIMESTAMP);
+        byte[] padded = new byte[SeraphimSnapshot.SIZE + 4];
+        System.arraycopy(data, 0, padded, 0, data.length);
+        assertTrue(SeraphimSnapshot.isValid(padded));
+        assertEquals(TIMESTAMP, SeraphimSnapshot.getTimestamp(padded));
+    }
+
+    @Test
+    public void parseLegacyValue() {
+        assertEquals(87, SeraphimSnapshot.parseLegacyValue(ascii("87"), -1));
+        assertEquals(21, SeraphimSnapshot.parseLegacyValue(utf8("21°"), -1));
+        assertEquals(-4, SeraphimSnapshot.parseLegacyValue(utf8("-4°"), -1));
+        assertEquals(0, SeraphimSnapshot.parseLegacyValue(ascii("0"), -1));
+        assertEquals(-1, SeraphimSnapshot.parseLegacyValue(ascii("-"), -1));
+        assertEquals(-1, SeraphimSnapshot.parseLegacyValue(utf8("°"), -1));
+        assertEquals(-1, SeraphimSnapshot.parseLegacyValue(new byte[0], -1));
+        assertEquals(-1, SeraphimSnapshot.parseLegacyValue(null, -1));
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(Charset.forName("US-ASCII"));
+    }
+
+    private static byte[] utf8(String text) {
+        return text.getBytes(Charset.forName("UTF-8"));
+    }
+}
@@ -0,0 +1,131 @@
+package com.amber.wear.watchface.energy;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.amber.wear.watchface.common.BitmapLoader;
+import com.amber.wear.watchface.common.RotatedSpriteAtlas;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Bitmaps decoded at surface size must come out the same drawn through an offscreen canvas (the
+ * static layer, sprite atlases) as drawn straight onto the surface, whose canvas has no density.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DecodedBitmapDensityTest {
+    private static final int[] SURFACE_SIZES = {360, 454};
+
+    private Resources mResources;
+
+    @Before
+    public void setUp() {
+        mResources = InstrumentationRegistry.getTargetContext().getResources();
+    }
+
+    @Test
+    public void decodedBitmapsHaveNoDensity() {
+        for (int size : SURFACE_SIZES) {
+            Bitmap hand = decodeForSurface(R.drawable.hour_hand, size);
+            assertEquals(size + "px", Bitmap.DENSITY_NONE, hand.getDensity());
+            hand.recycle();
+        }
+    }
+
+    @Test
+    public void staticLayerMatchesDirectDraw() {
+        for (int size : SURFACE_SIZES) {
+            Bitmap background = decodeForSurface(R.drawable.bg, size);
+            Bitmap icon = decodeForSurface(R.drawable.left_iphone, size);
+
+            /* As updateStaticLayer draws, into a canvas with the display density. */
+            Bitmap layer = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+            Canvas layerCanvas = new Canvas(layer);
+            layerCanvas.drawBitmap(background, 0, 0, null);
+            layerCanvas.drawBitmap(icon, size / 4, size / 4, null);
+
+            Bitmap direct = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+            Canvas surface = newSurfaceCanvas(direct);
+            surface.drawBitmap(background, 0, 0, null);
+            surface.drawBitmap(icon, size / 4, size / 4, null);
+
+            assertTrue(size + "px", layer.sameAs(direct));
+            background.recycle();
+            icon.recycle();
+            layer.recycle();
+            direct.recycle();
+        }
+    }
+
+    @Test
+    public void atlasSpriteMatchesDirectDraw() {
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.FILTER_BITMAP_FLAG);
+        for (int size : SURFACE_SIZES) {
+            Bitmap hand = decodeForSurface(R.drawable.hour_hand, size);
+            RotatedSpriteAtlas atlas = RotatedSpriteAtlas.create(hand, 1, 0f, Long.MAX_VALUE);
+            float pivot = size / 2f;
+
+            Bitmap fromAtlas = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+            atlas.draw(newSurfaceCanvas(fromAtlas), 0, pivot, pivot, null);
+
+            Bitmap direct = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+            newSurfaceCanvas(direct).drawBitmap(hand, pivot - hand.getWidth() / 2f,
+                    pivot - hand.getHeight() / 2f, paint);
+
+            /* The sprite is resampled once, so compare where the hand is rather than pixels. */
+            Rect expected = findOpaqueBounds(direct);
+            Rect actual = findOpaqueBounds(fromAtlas);
+            assertTrue(size + "px: " + actual + " vs " + expected,
+                    Math.abs(actual.left - expected.left) <= 1
+                            && Math.abs(actual.top - expected.top) <= 1
+                            && Math.abs(actual.right - expected.right) <= 1
+                            && Math.abs(actual.bottom - expected.bottom) <= 1);
+
+            atlas.recycle();
+            hand.recycle();
+            fromAtlas.recycle();
+            direct.recycle();
+        }
+    }
+
+    /* Scaled as SeraphimWatchFace scales its drawables for a surface of this width. */
+    private Bitmap decodeForSurface(int resId, int surfaceWidth) {
+        int backgroundWidth = BitmapLoader.decodeBounds(mResources, R.drawable.bg).outWidth;
+        return BitmapLoader.decodeScaled(mResources, resId,
+                surfaceWidth / (float) backgroundWidth, false);
+    }
+
+    /* The watch face surface's canvas doesn't scale bitmaps by density. */
+    private static Canvas newSurfaceCanvas(Bitmap bitmap) {
+        Canvas canvas = new Canvas(bitmap);
+        canvas.setDensity(Bitmap.DENSITY_NONE);
+        return canvas;
+    }
+
+    private static Rect findOpaqueBounds(Bitmap bitmap) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int[] row = new int[width];
+        Rect bounds = new Rect(width, height, 0, 0);
+        for (int y = 0; y < height; y++) {
+            bitmap.getPixels(row, 0, width, 0, y, width, 1);
+            for (int x = 0; x < width; x++) {
+                if (Color.alpha(row[x]) != 0) {
+                    bounds.union(x, y, x + 1, y + 1);
+                }
+            }
+        }
+        return bounds;
+    }
+}
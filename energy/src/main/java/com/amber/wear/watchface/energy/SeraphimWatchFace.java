@@ -21,22 +21,18 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
-import android.content.res.Resources;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Color;
-import android.graphics.ColorMatrix;
-import android.graphics.ColorMatrixColorFilter;
 import android.graphics.Paint;
 import android.graphics.PaintFlagsDrawFilter;
 import android.graphics.Rect;
 import android.graphics.Typeface;
+import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.BatteryManager;
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.Message;
-import android.support.v7.graphics.Palette;
+import android.os.SystemClock;
 import android.support.wearable.watchface.CanvasWatchFaceService;
 import android.support.wearable.watchface.WatchFaceService;
 import android.support.wearable.watchface.WatchFaceStyle;
@@ -45,18 +41,37 @@ import android.util.TypedValue;
 import android.view.SurfaceHolder;
 
 
+import com.amber.wear.watchface.common.BitmapLoader;
+import com.amber.wear.watchface.common.BitmapPool;
+import com.amber.wear.watchface.common.CalendarFormatter;
+import com.amber.wear.watchface.common.FrameBenchmark;
+import com.amber.wear.watchface.common.FrameMetrics;
+import com.amber.wear.watchface.common.PaletteCache;
+import com.amber.wear.watchface.common.RedrawScheduler;
+import com.amber.wear.watchface.common.RotatedSpriteAtlas;
+import com.amber.wear.watchface.common.SeraphimSnapshot;
+import com.amber.wear.watchface.common.StartupTrace;
+import com.amber.wear.watchface.common.TextBuffer;
+import com.amber.wear.watchface.common.TieredResources;
+import com.amber.wear.watchface.common.TypefaceRegistry;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.common.api.PendingResult;
 import com.google.android.gms.common.api.ResultCallback;
 import com.google.android.gms.wearable.CapabilityApi;
+import com.google.android.gms.wearable.DataApi;
+import com.google.android.gms.wearable.DataEvent;
+import com.google.android.gms.wearable.DataEventBuffer;
+import com.google.android.gms.wearable.DataItem;
+import com.google.android.gms.wearable.DataItemBuffer;
 import com.google.android.gms.wearable.MessageApi;
 import com.google.android.gms.wearable.MessageEvent;
 import com.google.android.gms.wearable.Node;
+import com.google.android.gms.wearable.PutDataRequest;
 import com.google.android.gms.wearable.Wearable;
 
-import java.lang.ref.WeakReference;
-import java.text.SimpleDateFormat;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.Calendar;
 import java.util.Locale;
 import java.util.Random;
@@ -71,23 +86,140 @@ import java.util.concurrent.TimeUnit;
 public class SeraphimWatchFace extends CanvasWatchFaceService {
     private static final String TAG = "swwMyWatchFace";
 
+    /**
+     * Battery level used until a real value has been received.
+     */
+    private static final int NO_VALUE = -1;
+
+    /**
+     * Draw the hands and gauge pointers from sprites pre-rotated in onSurfaceChanged instead of
+     * rotating the bitmaps every frame.
+     */
+    private static final boolean USE_SPRITE_ATLAS = true;
+
+    /**
+     * Memory all sprite atlases may use together. An atlas that doesn't fit is left out and its
+     * bitmap is rotated live.
+     */
+    private static final long SPRITE_ATLAS_MAX_BYTES = 8 * 1024 * 1024;
+
+    /**
+     * Draw a plain first frame (black background and hour and minute lines) while the bitmaps,
+     * typefaces, atlases and static layer are prepared on a worker thread, instead of preparing
+     * them on the main thread before the first frame. Time to first and full frame is logged.
+     */
+    private static final boolean STAGED_STARTUP = true;
+
+    private static final String FONT_PATH = "kenyan coffee rg.ttf";
+
+    /**
+     * Take the handheld state from the DataItem the handheld publishes when a value changes
+     * noticeably, and only ask for an update when that is older than {@link #STATE_FRESH_MS}.
+     * Otherwise ask on every connect and ambient exit, at most every 10 minutes. The dump shows
+     * the messages per hour either way.
+     */
+    private static final boolean PUSH_STATE = true;
+
+    /** Path of the DataItem holding the handheld's SeraphimSnapshot; see SeraphimStateService. */
+    private static final String STATE_PATH = "/seraphim-state";
+
+    /**
+     * Capability the face advertises while it is alive; the handheld stops publishing state when
+     * no node has it. See SeraphimStateService.
+     */
+    private static final String WATCH_FACE_CAPABILITY = "seraphim_watch_face";
+
+    /* The handheld republishes at least hourly while its state is unchanged. */
+    private static final long STATE_FRESH_MS = TimeUnit.MINUTES.toMillis(90);
+
     /*
-     * Update rate in milliseconds for interactive mode. We update once a second to advance the
-     * second hand.
+     * Second and minute hands stop at 60 positions, percent gauges at 101 (0% to 100%). The hour
+     * hand moves in half degrees; 720 sprites of it don't fit the cap, so it's rotated live.
      */
-    private static final long INTERACTIVE_UPDATE_RATE_MS = TimeUnit.SECONDS.toMillis(1);
+    private static final int HAND_POSITIONS = 60;
+    private static final int GAUGE_POSITIONS = 101;
+
+    private final FrameMetrics mFrameMetrics = new FrameMetrics("energy");
+    /* The engine created last, for the redraw counts in the dump. */
+    private volatile Engine mEngine;
+
+    /* Handheld traffic since the service was created, for the dump. */
+    private long mSyncStartRealtime;
+    private int mUpdateRequestsSent;
+    private int mUpdateMessagesReceived;
+    private int mStateItemsReceived;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mSyncStartRealtime = SystemClock.elapsedRealtime();
+        mFrameMetrics.registerDumpReceiver(this);
+    }
+
+    @Override
+    public void onDestroy() {
+        mFrameMetrics.unregisterDumpReceiver(this);
+        super.onDestroy();
+    }
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(fd, writer, args);
+        mFrameMetrics.dump(writer);
+        Engine engine = mEngine;
+        if (engine != null) {
+            engine.mRedrawScheduler.dump(writer);
+        }
+        BitmapPool.getInstance().dump(writer);
+        TypefaceRegistry.dump(writer);
+        TieredResources.dumpAll(writer);
+        StartupTrace.dump(this, "energy", writer, args);
+        dumpHandheldSync(writer);
+    }
+
+    private void dumpHandheldSync(PrintWriter writer) {
+        float hours = (SystemClock.elapsedRealtime() - mSyncStartRealtime)
+                / (float) TimeUnit.HOURS.toMillis(1);
+        int messages = mUpdateRequestsSent + mUpdateMessagesReceived + mStateItemsReceived;
+        writer.println("handheld sync (" + (PUSH_STATE ? "push" : "poll") + "): "
+                + mUpdateRequestsSent + " requests, " + mUpdateMessagesReceived + " replies, "
+                + mStateItemsReceived + " state items in " + hours + " h, "
+                + (hours > 0 ? messages / hours : 0) + " messages/h");
+    }
 
     /**
-     * Handler message id for updating the time periodically in interactive mode.
+     * Withdraws {@link #WATCH_FACE_CAPABILITY} in the background, with a client of its own, as
+     * the engine's is only connected while visible.
      */
-    private static final int MSG_UPDATE_TIME = 0;
+    private void removeWatchFaceCapability() {
+        final Context context = getApplicationContext();
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                GoogleApiClient client = new GoogleApiClient.Builder(context)
+                        .addApi(Wearable.API)
+                        .build();
+                if (!client.blockingConnect(10, TimeUnit.SECONDS).isSuccess()) {
+                    return;
+                }
+                try {
+                    Wearable.CapabilityApi.removeLocalCapability(client, WATCH_FACE_CAPABILITY)
+                            .await(10, TimeUnit.SECONDS);
+                } finally {
+                    client.disconnect();
+                }
+            }
+        });
+    }
 
     @Override
     public Engine onCreateEngine() {
-        return new Engine();
+        mEngine = new Engine();
+        return mEngine;
     }
 
-    private class Engine extends CanvasWatchFaceService.Engine implements MessageApi.MessageListener{
+    private class Engine extends CanvasWatchFaceService.Engine implements MessageApi.MessageListener,
+            DataApi.DataListener, RedrawScheduler.Client, FrameBenchmark.Target, TieredResources.Client {
         private boolean isRound;
         private static final float HOUR_STROKE_WIDTH = 5f;
         private static final float MINUTE_STROKE_WIDTH = 3f;
@@ -95,15 +227,8 @@ public class SeraphimWatchFace extends CanvasWatchFaceService {
 
         private static final float CENTER_GAP_AND_CIRCLE_RADIUS = 4f;
 
-        private static final int SHADOW_RADIUS = 6;
-
         private Calendar mCalendar;
-        private SimpleDateFormat mMonthFormat;
-        private SimpleDateFormat mDayFormat;
-        private SimpleDateFormat mAmPmFormat;
-        private SimpleDateFormat mWeekFormat;
-        private SimpleDateFormat mDateFormat;
-        private SimpleDateFormat mDaysFormat;
+        private CalendarFormatter mFormatter;
         private boolean mRegisteredTimeZoneReceiver = false;
         private boolean mMuteMode;
 
@@ -146,7 +271,6 @@ public class SeraphimWatchFace extends CanvasWatchFaceService {
         private Bitmap mBackgroundBitmap;
         private Bitmap mBackgroundCenterBitmap;
         private Bitmap mGrayBackgroundBitmap;
-        private Bitmap mGrayBackgroundCenterBitmap;
 
 
         /* Animators */
@@ -174,24 +298,73 @@ public class SeraphimWatchFace extends CanvasWatchFaceService {
 
         //bat,temp;
         private final long HANDHELD_UPDATE_INTERVAL_MS = TimeUnit.MINUTES.toMillis(10);
-        private String mWatchBatteryPercentage = "";
+        private int mWatchBatteryLevel = NO_VALUE;
         private long mLastUpdateRequestTime = 0;
-        private String mTemperature = "";
-        private String mPhoneBatteryPercentage = "";
+        private int mTemperature;
+        private boolean mHasTemperature;
+        private int mPhoneBatteryLevel = NO_VALUE;
+        /* Handheld time of the last snapshot received, or 0. */
+        private long mSnapshotTime;
         private GoogleApiClient mGoogleApiClient;
+        /* Asks the handheld for a SeraphimSnapshot instead of one message per value. */
+        private final byte[] mUpdateRequest = {SeraphimSnapshot.VERSION};
+
+        /* Preallocated so the interactive frame path doesn't allocate. */
+        private final PaintFlagsDrawFilter mDrawFilter =
+                new PaintFlagsDrawFilter(0, Paint.ANTI_ALIAS_FLAG | Paint.FILTER_BITMAP_FLAG);
+        private final Random mRandom = new Random();
+
+        /* "dd/", rewritten in place when the formatter reports a new day. */
+        private final TextBuffer mDayText = new TextBuffer(3);
+        private float mDayTextWidth;
+
+        /*
+         * Background, date plate, date texts and gauge dials flattened into one bitmap. Rebuilt
+         * when the minute changes or after an ambient, mute or surface change.
+         */
+        private Bitmap mStaticLayerBitmap;
+        private Canvas mStaticLayerCanvas;
+        private long mStaticLayerMinute = -1;
+
+        /* Pre-rotated sprites; null when the atlas mode is off or an atlas didn't fit the cap. */
+        private RotatedSpriteAtlas mPointerAtlas;
+        private RotatedSpriteAtlas mSecondAtlas;
+        private RotatedSpriteAtlas mMinuteAtlas;
 
 
         private final BroadcastReceiver mTimeZoneReceiver = new BroadcastReceiver() {
             @Override
             public void onReceive(Context context, Intent intent) {
                 Log.e(TAG, "onReceive: "+"Broadcast--mTimeZoneReceiver" );
-                mCalendar.setTimeZone(TimeZone.getDefault());
+                if (Intent.ACTION_LOCALE_CHANGED.equals(intent.getAction())) {
+                    mFormatter.setLocale(Locale.getDefault());
+                } else {
+                    mCalendar.setTimeZone(TimeZone.getDefault());
+                    mFormatter.invalidate();
+                }
+                invalidateStaticLayer();
                 invalidate();
             }
         };
 
-        /* Handler to update the time once a second in interactive mode. */
-        private final Handler mUpdateTimeHandler = new EngineHandler(this);
+        /* Redraws on the next second boundary or when handheld data arrives. */
+        private final RedrawScheduler mRedrawScheduler = new RedrawScheduler(this);
+        private BroadcastReceiver mBenchmarkReceiver;
+        /* Background palette still being computed; cancelled with the engine. */
+        private PaletteCache.Request mPaletteRequest;
+        /* Surface size the bitmaps and atlases were last built for. */
+        private int mSurfaceWidth;
+        private int mSurfaceHeight;
+        /* Surface width over the background drawable's width. */
+        private float mBitmapScale;
+        private TieredResources mResources;
+        /* Whether everything drawFrame needs is loaded; only touched on the main thread. */
+        private boolean mReady;
+        /* Prepares the first full frame off the main thread, while STAGED_STARTUP. */
+        private AsyncTask<Void, Void, Typeface> mStartupTask;
+        /* Started as onCreateEngine constructs the engine. */
+        private final StartupTrace mStartupTrace =
+                new StartupTrace(SeraphimWatchFace.this, "energy");
 
         @Override
         public void onCreate(SurfaceHolder holder) {
@@ -209,8 +382,15 @@ public class SeraphimWatchFace extends CanvasWatchFaceService {
                     .addConnectionCallbacks(new GoogleApiClient.ConnectionCallbacks() {
                         @Override
                         public void onConnected(Bundle connectionHint) {
+                            Wearable.CapabilityApi.addLocalCapability(mGoogleApiClient,
+                                    WATCH_FACE_CAPABILITY);
                             Wearable.MessageApi.addListener(mGoogleApiClient, Engine.this);
-                            requestUpdateFromHandheld();
+                            if (PUSH_STATE) {
+                                Wearable.DataApi.addListener(mGoogleApiClient, Engine.this);
+                                loadPushedState();
+                            } else {
+                                requestUpdateFromHandheld();
+                            }
                         }
 
                         @Override
@@ -231,12 +411,6 @@ public class SeraphimWatchFace extends CanvasWatchFaceService {
 
             mBackgroundPaint = new Paint();
             mBackgroundPaint.setColor(Color.WHITE);
-            if (isRound){
-                mBackgroundBitmap = BitmapFactory.decodeResource(getResources(), R.drawable.bg);
-            }else{
-                mBackgroundBitmap = BitmapFactory.decodeResource(getResources(), R.drawable.sbg);
-            }
-            mBackgroundCenterBitmap = BitmapFactory.decodeResource(getResources(), R.drawable.bg_center);
 
 
             /* Set defaults for colors */
@@ -254,102 +428,192 @@ public class SeraphimWatchFace extends CanvasWatchFaceService {
             mHourPaint.setStrokeWidth(HOUR_STROKE_WIDTH);
             mHourPaint.setAntiAlias(true);
             mHourPaint.setStrokeCap(Paint.Cap.ROUND);
-            mHourPaint.setShadowLayer(SHADOW_RADIUS, 0, 0, mWatchHandShadowColor);
 
             mMinutePaint = new Paint();
             mMinutePaint.setColor(mWatchHandColor);
             mMinutePaint.setStrokeWidth(MINUTE_STROKE_WIDTH);
             mMinutePaint.setAntiAlias(true);
             mMinutePaint.setStrokeCap(Paint.Cap.ROUND);
-            mMinutePaint.setShadowLayer(SHADOW_RADIUS, 0, 0, mWatchHandShadowColor);
 //com.amber.wear.watchface
             mSecondPaint = new Paint();
             mSecondPaint.setColor(mWatchHandHighlightColor);
             mSecondPaint.setStrokeWidth(SECOND_TICK_STROKE_WIDTH);
             mSecondPaint.setAntiAlias(true);
             mSecondPaint.setStrokeCap(Paint.Cap.ROUND);
-            mSecondPaint.setShadowLayer(SHADOW_RADIUS, 0, 0, mWatchHandShadowColor);
 
             mTickAndCirclePaint = new Paint();
             mTickAndCirclePaint.setColor(mWatchHandColor);
             mTickAndCirclePaint.setStrokeWidth(SECOND_TICK_STROKE_WIDTH);
             mTickAndCirclePaint.setAntiAlias(true);
             mTickAndCirclePaint.setStyle(Paint.Style.STROKE);
-            mTickAndCirclePaint.setShadowLayer(SHADOW_RADIUS, 0, 0, mWatchHandShadowColor);
 
             mTextHourPaint = new Paint();
             mTextHourPaint.setColor(Color.BLACK);
             mTextHourPaint.setAntiAlias(true);
             mTextHourPaint.setTextAlign(Paint.Align.LEFT);
             mTextHourPaint.setTextSize(dp2px(7));
-            mTextHourPaint.setTypeface(Typeface.createFromAsset(getResources().getAssets(), "kenyan coffee rg.ttf"));
 
             mTextMinutePaint = new Paint();
             mTextMinutePaint.setColor(Color.BLACK);
             mTextMinutePaint.setAntiAlias(true);
             mTextMinutePaint.setTextAlign(Paint.Align.LEFT);
             mTextMinutePaint.setTextSize(dp2px(8));
-            mTextMinutePaint.setTypeface(Typeface.createFromAsset(getResources().getAssets(), "kenyan coffee rg.ttf"));
 
             mTextAmPmPaint = new Paint();
             mTextAmPmPaint.setColor(mTextAmPmColor);
             mTextAmPmPaint.setAntiAlias(true);
             mTextAmPmPaint.setTextAlign(Paint.Align.LEFT);
             mTextAmPmPaint.setTextSize(dp2px(10));
-            mTextAmPmPaint.setTypeface(Typeface.createFromAsset(getResources().getAssets(), "kenyan coffee rg.ttf"));
 
             mTextWeekPaint = new Paint();
             mTextWeekPaint.setColor(mWatchHandShadowColor);
             mTextWeekPaint.setAntiAlias(true);
             mTextWeekPaint.setTextAlign(Paint.Align.LEFT);
             mTextWeekPaint.setTextSize(dp2px(8));
-            mTextWeekPaint.setTypeface(Typeface.createFromAsset(getResources().getAssets(), "kenyan coffee rg.ttf"));
 
             mTextDatePaint = new Paint();
             mTextDatePaint.setColor(mWatchHandShadowColor);
             mTextDatePaint.setAntiAlias(true);
             mTextDatePaint.setTextAlign(Paint.Align.LEFT);
             mTextDatePaint.setTextSize(dp2px(11));
-            mTextDatePaint.setTypeface(Typeface.createFromAsset(getResources().getAssets(), "kenyan coffee rg.ttf"));
 
 
+            if (!STAGED_STARTUP) {
+                setTextTypeface(loadTypeface());
+            }
+
             rect = new Rect();
-            Resources resources = getResources();
-            mHourBitmap = BitmapFactory.decodeResource(resources, R.drawable.hour_hand);
-            mCenterBitmap=BitmapFactory.decodeResource(resources,R.drawable.clock_center);
-//            mHourBitmap = Bitmap.createScaledBitmap(mHourBitmap, 50, 135, true);
-            mMinuteBitmap = BitmapFactory.decodeResource(resources, R.drawable.minute_hand);
-//            mMinuteBitmap = Bitmap.createScaledBitmap(mMinuteBitmap, 28, 136, true);
-            mSecHandBitmap=BitmapFactory.decodeResource(resources,R.drawable.sec_hand);
-
-            mDateTextView=BitmapFactory.decodeResource(resources,R.drawable.date_text);
-            mHeart=BitmapFactory.decodeResource(resources,R.drawable.bottom_heart);
-            mLeftIphone=BitmapFactory.decodeResource(resources,R.drawable.left_iphone);
-            mRightWear=BitmapFactory.decodeResource(resources,R.drawable.right_wear);
-            mPointerIphone =BitmapFactory.decodeResource(resources,R.drawable.function_pointer);
-            mPointerWatch=BitmapFactory.decodeResource(resources,R.drawable.function_pointer);
-            mPointerHeart=BitmapFactory.decodeResource(resources,R.drawable.function_pointer);
+
+            mCalendar = Calendar.getInstance();
+            mFormatter = new CalendarFormatter(Locale.getDefault(), true);
 
             /* Extract colors from background image to improve watchface style. */
-            Palette.from(mBackgroundBitmap).generate(new Palette.PaletteAsyncListener() {
-                @Override
-                public void onGenerated(Palette palette) {
-                    if (palette != null) {
-//                        mWatchHandHighlightColor = palette.getVibrantColor(Color.RED);
-                        mWatchHandColor = palette.getLightVibrantColor(Color.WHITE);
-                        mWatchHandShadowColor = palette.getDarkMutedColor(Color.BLACK);
-                        updateWatchHandStyle();
+            mStartupTrace.begin(StartupTrace.PHASE_PALETTE);
+            mPaletteRequest = PaletteCache.load(SeraphimWatchFace.this, isRound ? R.drawable.bg : R.drawable.sbg,
+                    new PaletteCache.Listener() {
+                        @Override
+                        public void onColors(PaletteCache.Colors colors) {
+                            mStartupTrace.end(StartupTrace.PHASE_PALETTE);
+                            int handColor = colors.getLightVibrantColor(Color.WHITE);
+                            int shadowColor = colors.getDarkMutedColor(Color.BLACK);
+                            if (handColor != mWatchHandColor
+                                    || shadowColor != mWatchHandShadowColor) {
+                                mWatchHandColor = handColor;
+                                mWatchHandShadowColor = shadowColor;
+                                updateWatchHandStyle();
+                                invalidate();
+                            }
+                        }
+                    });
+
+            mResources = new TieredResources(SeraphimWatchFace.this, "energy", this);
+            mBenchmarkReceiver = FrameBenchmark.registerReceiver(SeraphimWatchFace.this, "energy", this);
+        }
+
+        /**
+         * Takes the bitmaps of {@code tier} from the shared pool, scaled by {@link #mBitmapScale}.
+         * The background and gauge faces are only drawn in interactive mode, the gray background
+         * only in ambient mode; hands and pointers are drawn in both, and the sprite atlases are
+         * built from them.
+         */
+        @Override
+        public long loadTier(int tier) {
+            float scale = mBitmapScale;
+            int backgroundId = isRound ? R.drawable.bg : R.drawable.sbg;
+            switch (tier) {
+                case TieredResources.TIER_ALWAYS:
+                    mHourBitmap = loadBitmap(R.drawable.hour_hand, scale, false);
+                    mMinuteBitmap = loadBitmap(R.drawable.minute_hand, scale, false);
+                    mSecHandBitmap = loadBitmap(R.drawable.sec_hand, scale, false);
+                    mCenterBitmap = loadBitmap(R.drawable.clock_center, scale, false);
+                    mPointerIphone = loadBitmap(R.drawable.function_pointer, scale, false);
+                    mPointerWatch = loadBitmap(R.drawable.function_pointer, scale, false);
+                    mPointerHeart = loadBitmap(R.drawable.function_pointer, scale, false);
+                    break;
+                case TieredResources.TIER_INTERACTIVE:
+                    mBackgroundBitmap = loadBitmap(backgroundId, scale, true);
+                    mBackgroundCenterBitmap = loadBitmap(R.drawable.bg_center, scale, false);
+                    mDateTextView = loadBitmap(R.drawable.date_text, scale, false);
+                    mLeftIphone = loadBitmap(R.drawable.left_iphone, scale, false);
+                    mRightWear = loadBitmap(R.drawable.right_wear, scale, false);
+                    mHeart = loadBitmap(R.drawable.bottom_heart, scale, false);
+                    break;
+                default:
+                    /*
+                     * The ambient backgrounds come pre-converted from the build
+                     * (asset-pipeline.gradle): gray, or 1 bit for low-bit ambient screens. Burn-in
+                     * protection shifts pixels, which doesn't look nice on an image going all the
+                     * way to the edges, so those get none.
+                     */
+                    if (mBurnInProtection) {
+                        mGrayBackgroundBitmap = null;
+                    } else if (mLowBitAmbient) {
+                        mGrayBackgroundBitmap = loadBitmap(backgroundId, scale, false,
+                                BitmapPool.VARIANT_LOW_BIT);
+                    } else {
+                        mGrayBackgroundBitmap = loadBitmap(backgroundId, scale, true,
+                                BitmapPool.VARIANT_GRAY);
                     }
-                }
-            });
+                    break;
+            }
+            return TieredResources.getByteCount(getTierBitmaps(tier));
+        }
 
-            mCalendar = Calendar.getInstance();
-            mMonthFormat = new SimpleDateFormat("MM",  Locale.getDefault());
-            mDayFormat = new SimpleDateFormat("dd",  Locale.getDefault());
-            mAmPmFormat = new SimpleDateFormat("a",  Locale.getDefault());
-            mWeekFormat = new SimpleDateFormat("E",  Locale.getDefault());
-            mDateFormat = new SimpleDateFormat("MM dd",  Locale.getDefault());
+        @Override
+        public void releaseTier(int tier) {
+            for (Bitmap bitmap : getTierBitmaps(tier)) {
+                BitmapPool.getInstance().release(bitmap);
+            }
+            switch (tier) {
+                case TieredResources.TIER_ALWAYS:
+                    mHourBitmap = mMinuteBitmap = mSecHandBitmap = mCenterBitmap = null;
+                    mPointerIphone = mPointerWatch = mPointerHeart = null;
+                    break;
+                case TieredResources.TIER_INTERACTIVE:
+                    mBackgroundBitmap = mBackgroundCenterBitmap = mDateTextView = null;
+                    mLeftIphone = mRightWear = mHeart = null;
+                    break;
+                default:
+                    mGrayBackgroundBitmap = null;
+                    break;
+            }
+        }
+
+        private Bitmap[] getTierBitmaps(int tier) {
+            switch (tier) {
+                case TieredResources.TIER_ALWAYS:
+                    return new Bitmap[]{mHourBitmap, mMinuteBitmap, mSecHandBitmap, mCenterBitmap,
+                            mPointerIphone, mPointerWatch, mPointerHeart};
+                case TieredResources.TIER_INTERACTIVE:
+                    return new Bitmap[]{mBackgroundBitmap, mBackgroundCenterBitmap, mDateTextView,
+                            mLeftIphone, mRightWear, mHeart};
+                default:
+                    return new Bitmap[]{mGrayBackgroundBitmap};
+            }
+        }
+
+        private Bitmap loadBitmap(int resId, float scale, boolean opaque) {
+            return loadBitmap(resId, scale, opaque, BitmapPool.VARIANT_NORMAL);
+        }
 
+        private Bitmap loadBitmap(int resId, float scale, boolean opaque, int variant) {
+            return BitmapPool.getInstance().acquireScaled(getResources(), resId, scale, opaque,
+                    variant);
+        }
+
+        private Typeface loadTypeface() {
+            mStartupTrace.begin(StartupTrace.PHASE_TYPEFACE);
+            Typeface typeface = TypefaceRegistry.get(getAssets(), FONT_PATH);
+            mStartupTrace.end(StartupTrace.PHASE_TYPEFACE);
+            return typeface;
+        }
+
+        private void setTextTypeface(Typeface typeface) {
+            mTextHourPaint.setTypeface(typeface);
+            mTextMinutePaint.setTypeface(typeface);
+            mTextAmPmPaint.setTypeface(typeface);
+            mTextWeekPaint.setTypeface(typeface);
+            mTextDatePaint.setTypeface(typeface);
         }
 
         private float dp2px(float dp) {
@@ -358,9 +622,36 @@ public class SeraphimWatchFace extends CanvasWatchFaceService {
 
         @Override
         public void onDestroy() {
-            mUpdateTimeHandler.removeMessages(MSG_UPDATE_TIME);
+            mRedrawScheduler.stop();
+            if (mEngine == this) {
+                /* No later engine of this face is alive to keep the handheld publishing. */
+                mEngine = null;
+                removeWatchFaceCapability();
+            }
+            FrameBenchmark.unregisterReceiver(SeraphimWatchFace.this, this, mBenchmarkReceiver);
+            mPaletteRequest.cancel();
+            if (mStartupTask != null) {
+                /* The task may still be drawing from the bitmaps; onCancelled frees them after. */
+                mStartupTask.cancel(false);
+                mStartupTask = null;
+            } else {
+                releaseSurface();
+            }
             super.onDestroy();
         }
+
+        /**
+         * Frees everything {@link #layoutSurface} made.
+         */
+        private void releaseSurface() {
+            recycleSpriteAtlases();
+            if (mStaticLayerBitmap != null) {
+                mStaticLayerBitmap.recycle();
+                mStaticLayerBitmap = null;
+                mStaticLayerCanvas = null;
+            }
+            mResources.release();
+        }
         //性能改变（低电量，发热程度预警）；
         @Override
         public void onPropertiesChanged(Bundle properties) {
@@ -386,7 +677,11 @@ public class SeraphimWatchFace extends CanvasWatchFaceService {
             super.onAmbientModeChanged(inAmbientMode);
             Log.e(TAG, "onAmbientModeChanged: +change mode between ambientMode and internal--"+inAmbientMode);
             mAmbient = inAmbientMode;
+            if (mReady) {
+                mResources.setAmbient(mAmbient);
+            }
             updateWatchHandStyle();
+            invalidateStaticLayer();
 
             mAmbient = inAmbientMode;
             if (mAmbient) {
@@ -398,7 +693,7 @@ public class SeraphimWatchFace extends CanvasWatchFaceService {
                 requestUpdateFromHandheld();
             }
             /* Check and trigger whether or not timer should be running (only in active mode). */
-            updateTimer();
+            mRedrawScheduler.update();
         }
 
         /**
@@ -425,13 +720,6 @@ public class SeraphimWatchFace extends CanvasWatchFaceService {
                 mTextAmPmPaint.setAntiAlias(false);
                 mTextWeekPaint.setAntiAlias(false);
                 mTextDatePaint.setAntiAlias(false);
-
-
-                mHourPaint.clearShadowLayer();
-                mMinutePaint.clearShadowLayer();
-                mSecondPaint.clearShadowLayer();
-                mTickAndCirclePaint.clearShadowLayer();
-
             } else {
                 mHourPaint.setColor(mWatchHandColor);
                 mMinutePaint.setColor(mWatchHandColor);
@@ -452,11 +740,6 @@ public class SeraphimWatchFace extends CanvasWatchFaceService {
                 mTextAmPmPaint.setAntiAlias(true);
                 mTextWeekPaint.setAntiAlias(true);
                 mTextDatePaint.setAntiAlias(true);
-
-                mHourPaint.setShadowLayer(SHADOW_RADIUS, 0, 0, mWatchHandShadowColor);
-                mMinutePaint.setShadowLayer(SHADOW_RADIUS, 0, 0, mWatchHandShadowColor);
-                mSecondPaint.setShadowLayer(SHADOW_RADIUS, 0, 0, mWatchHandShadowColor);
-                mTickAndCirclePaint.setShadowLayer(SHADOW_RADIUS, 0, 0, mWatchHandShadowColor);
             }
         }
 
@@ -467,21 +750,51 @@ public class SeraphimWatchFace extends CanvasWatchFaceService {
 
             /* Dim display in mute mode. */
             if (mMuteMode != inMuteMode) {
-                mMuteMode = inMuteMode;
-                mHourPaint.setAlpha(inMuteMode ? 100 : 255);
-                mMinutePaint.setAlpha(inMuteMode ? 100 : 255);
-                mSecondPaint.setAlpha(inMuteMode ? 80 : 255);
-                mTextHourPaint.setAlpha(inMuteMode ? 100 : 255);
-                mTextMinutePaint.setAlpha(inMuteMode ? 100 : 255);
-                mTextAmPmPaint.setAlpha(inMuteMode ? 80 : 255);
-                mTextWeekPaint.setAlpha(inMuteMode ? 80 : 255);
+                setMuteMode(inMuteMode);
                 invalidate();
             }
         }
 
+        private void setMuteMode(boolean inMuteMode) {
+            mMuteMode = inMuteMode;
+            mHourPaint.setAlpha(inMuteMode ? 100 : 255);
+            mMinutePaint.setAlpha(inMuteMode ? 100 : 255);
+            mSecondPaint.setAlpha(inMuteMode ? 80 : 255);
+            mTextHourPaint.setAlpha(inMuteMode ? 100 : 255);
+            mTextMinutePaint.setAlpha(inMuteMode ? 100 : 255);
+            mTextAmPmPaint.setAlpha(inMuteMode ? 80 : 255);
+            mTextWeekPaint.setAlpha(inMuteMode ? 80 : 255);
+            invalidateStaticLayer();
+        }
+
         @Override
         public void onSurfaceChanged(SurfaceHolder holder, int format, int width, int height) {
             super.onSurfaceChanged(holder, format, width, height);
+            if (width == mSurfaceWidth && height == mSurfaceHeight
+                    && (mStartupTask != null || mResources.isLoaded(TieredResources.TIER_ALWAYS))) {
+                return;
+            }
+            layoutForSize(width, height);
+            if (mReady || mStartupTask != null) {
+                /* The startup task catches up with the new size when it finishes. */
+                return;
+            }
+            if (STAGED_STARTUP) {
+                startStartupTask(width, height);
+                return;
+            }
+            layoutSurface(width, height);
+            mReady = true;
+            logStartup("full frame ready");
+        }
+
+        /**
+         * Lays the face out for a {@code width} x {@code height} surface; the images, static layer
+         * and atlases only once the face is ready, before that the startup task does them.
+         */
+        private void layoutForSize(int width, int height) {
+            mSurfaceWidth = width;
+            mSurfaceHeight = height;
 
             /*
              * Find the coordinates of the center point on the screen, and ignore the window
@@ -498,107 +811,148 @@ public class SeraphimWatchFace extends CanvasWatchFaceService {
             sMinuteHandLength = (float) (mCenterX * 0.85);
             sHourHandLength = (float) (mCenterX * 0.7);
 
+            if (mReady) {
+                layoutSurface(width, height);
+            }
+        }
 
-            /* Scale loaded background image (more efficient) if surface dimensions change. */
-            float scale = ((float) width) / (float) mBackgroundBitmap.getWidth();
-
-            mBackgroundBitmap = Bitmap.createScaledBitmap(mBackgroundBitmap,
-                    (int) (mBackgroundBitmap.getWidth() * scale),
-                    (int) (mBackgroundBitmap.getHeight() * scale), true);
-
-            mBackgroundCenterBitmap = Bitmap.createScaledBitmap(mBackgroundCenterBitmap,
-                    (int) (mBackgroundCenterBitmap.getWidth() * scale),
-                    (int) (mBackgroundCenterBitmap.getHeight() * scale), true);
-
-            mHourBitmap=Bitmap.createScaledBitmap(mHourBitmap,
-                    (int) (mHourBitmap.getWidth() * scale),
-                    (int) (mHourBitmap.getHeight() * scale), true);
-            mMinuteBitmap=Bitmap.createScaledBitmap(mMinuteBitmap,
-                    (int) (mMinuteBitmap.getWidth() * scale),
-                    (int) (mMinuteBitmap.getHeight() * scale), true);
-            mSecHandBitmap=Bitmap.createScaledBitmap(mSecHandBitmap,
-                    (int) (mSecHandBitmap.getWidth() * scale),
-                    (int) (mSecHandBitmap.getHeight() * scale), true);
-            mCenterBitmap=Bitmap.createScaledBitmap(mCenterBitmap,
-                    (int)(mCenterBitmap.getWidth()*scale),
-                    (int)(mCenterBitmap.getHeight()*scale),true);
-
-            mDateTextView=Bitmap.createScaledBitmap(mDateTextView,
-                    (int)(mDateTextView.getWidth()*scale),
-                    (int)(mDateTextView.getHeight()*scale),true);
-
-            mLeftIphone=Bitmap.createScaledBitmap(mLeftIphone,
-                    (int)(mLeftIphone.getWidth()*scale),
-                    (int)(mLeftIphone.getHeight()*scale),true);
-            mRightWear=Bitmap.createScaledBitmap(mRightWear,
-                    (int)(mRightWear.getWidth()*scale),
-                    (int)(mRightWear.getHeight()*scale),true);
-            mHeart=Bitmap.createScaledBitmap(mHeart,
-                    (int)(mHeart.getWidth()*scale),
-                    (int)(mHeart.getHeight()*scale),true);
-            mPointerIphone =Bitmap.createScaledBitmap(mPointerIphone,
-                    (int)(mPointerIphone.getWidth()*scale),
-                    (int)(mPointerIphone.getHeight()*scale),true);
-            mPointerWatch=Bitmap.createScaledBitmap(mPointerWatch,
-                    (int)(mPointerWatch.getWidth()*scale),
-                    (int)(mPointerWatch.getHeight()*scale),true);
-            mPointerHeart=Bitmap.createScaledBitmap(mPointerHeart,
-                    (int)(mPointerHeart.getWidth()*scale),
-                    (int)(mPointerHeart.getHeight()*scale),true);
-            /*
-             * Create a gray version of the image only if it will look nice on the device in
-             * ambient mode. That means we don't want devices that support burn-in
-             * protection (slight movements in pixels, not great for images going all the way to
-             * edges) and low ambient mode (degrades image quality).
-             *
-             * Also, if your watch face will know about all images ahead of time (users aren't
-             * selecting their own photos for the watch face), it will be more
-             * efficient to create a black/white version (png, etc.) and load that when you need it.
-             */
-            if (!mBurnInProtection && !mLowBitAmbient) {
-                initGrayBackgroundBitmap();
-//                initGrayBackgroundCenterBitmap();
+        /**
+         * Loads the typeface and lays out for the first surface on a worker thread. Until it is
+         * done {@link #onDraw} draws {@link #drawStartupFrame}; nothing the task touches is used
+         * on the main thread before then.
+         */
+        private void startStartupTask(final int width, final int height) {
+            mStartupTask = new AsyncTask<Void, Void, Typeface>() {
+                @Override
+                protected Typeface doInBackground(Void... params) {
+                    Typeface typeface = loadTypeface();
+                    layoutSurface(width, height);
+                    return typeface;
+                }
+
+                @Override
+                protected void onPostExecute(Typeface typeface) {
+                    mStartupTask = null;
+                    setTextTypeface(typeface);
+                    if (width != mSurfaceWidth || height != mSurfaceHeight) {
+                        layoutSurface(mSurfaceWidth, mSurfaceHeight);
+                    }
+                    mReady = true;
+                    mResources.setAmbient(mAmbient);
+                    invalidateStaticLayer();
+                    logStartup("full frame ready");
+                    invalidate();
+                }
+
+                @Override
+                protected void onCancelled(Typeface typeface) {
+                    /* Destroyed mid-startup; onDestroy left the cleanup to here. */
+                    releaseSurface();
+                }
+            };
+            mStartupTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        }
+
+        /**
+         * Decodes the images at the size they are drawn at for this surface and builds the static
+         * layer and sprite atlases. Called on the startup task's thread while that runs.
+         */
+        private void layoutSurface(int width, int height) {
+            mStartupTrace.begin(StartupTrace.PHASE_DECODE);
+            int backgroundWidth = BitmapLoader.decodeBounds(getResources(),
+                    isRound ? R.drawable.bg : R.drawable.sbg).outWidth;
+            mBitmapScale = ((float) width) / (float) backgroundWidth;
+            mResources.reload();
+            mStartupTrace.end(StartupTrace.PHASE_DECODE);
+
+            mStartupTrace.begin(StartupTrace.PHASE_SCALE);
+
+            if (mStaticLayerBitmap == null
+                    || mStaticLayerBitmap.getWidth() != width
+                    || mStaticLayerBitmap.getHeight() != height) {
+                if (mStaticLayerBitmap != null) {
+                    mStaticLayerBitmap.recycle();
+                }
+                mStaticLayerBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+                mStaticLayerCanvas = new Canvas(mStaticLayerBitmap);
+                mStaticLayerCanvas.setDrawFilter(mDrawFilter);
             }
+            invalidateStaticLayer();
+
+            if (USE_SPRITE_ATLAS) {
+                createSpriteAtlases();
+            }
+            mStartupTrace.end(StartupTrace.PHASE_SCALE);
         }
 
-        private void rotateAngelBatIp(Canvas canvas,Bitmap bitmap,float angle){
-            canvas.save();
-            canvas.rotate(angle, mCenterX-mLeftIphone.getWidth()/2-21f, mCenterY);
-            canvas.drawBitmap(mPointerIphone,mCenterX-mLeftIphone.getWidth()/2- mPointerIphone.getWidth()/2-21f, mCenterY- mPointerIphone.getHeight()/2, null);
-            canvas.restore();
+        /**
+         * Builds the atlases in order of how often they are drawn per frame, as long as they fit
+         * in {@link #SPRITE_ATLAS_MAX_BYTES}. The three gauges share one pointer atlas.
+         */
+        private void createSpriteAtlases() {
+            recycleSpriteAtlases();
+            long budget = SPRITE_ATLAS_MAX_BYTES;
+            mPointerAtlas = RotatedSpriteAtlas.create(mPointerIphone, GAUGE_POSITIONS, 3.6f, budget);
+            if (mPointerAtlas != null) {
+                budget -= mPointerAtlas.getByteCount();
+            }
+            mSecondAtlas = RotatedSpriteAtlas.create(mSecHandBitmap, HAND_POSITIONS, 6f, budget);
+            if (mSecondAtlas != null) {
+                budget -= mSecondAtlas.getByteCount();
+            }
+            mMinuteAtlas = RotatedSpriteAtlas.create(mMinuteBitmap, HAND_POSITIONS, 6f, budget);
+            if (mMinuteAtlas != null) {
+                budget -= mMinuteAtlas.getByteCount();
+            }
+            Log.i(TAG, "sprite atlases use " + (SPRITE_ATLAS_MAX_BYTES - budget) + " bytes");
         }
-        private void rotateAngelBatWat(Canvas canvas,Bitmap bitmap,float angle){
-            canvas.save();
-            canvas.rotate(angle, mCenterX+mLeftIphone.getWidth()/2+21f, mCenterY);
-            canvas.drawBitmap(mPointerWatch,mCenterX+mLeftIphone.getWidth()/2-mPointerIphone.getWidth()/2+21f, mCenterY- mPointerWatch.getHeight()/2, null);
-            canvas.restore();
+
+        private void recycleSpriteAtlases() {
+            if (mPointerAtlas != null) {
+                mPointerAtlas.recycle();
+                mPointerAtlas = null;
+            }
+            if (mSecondAtlas != null) {
+                mSecondAtlas.recycle();
+                mSecondAtlas = null;
+            }
+            if (mMinuteAtlas != null) {
+                mMinuteAtlas.recycle();
+                mMinuteAtlas = null;
+            }
         }
 
-        private void rotateAngelHeart(Canvas canvas,Bitmap bitmap,float angle){
+        /**
+         * Draws {@code bitmap} rotated by {@code angle} around its centre, placed on the pivot.
+         * Uses the pre-rotated sprite when an atlas is available.
+         */
+        private void drawRotated(Canvas canvas, RotatedSpriteAtlas atlas, Bitmap bitmap,
+                float angle, float pivotX, float pivotY) {
+            if (atlas != null) {
+                atlas.draw(canvas, atlas.indexFor(angle), pivotX, pivotY, null);
+                return;
+            }
             canvas.save();
-            canvas.rotate(angle, mCenterX, mCenterY+mLeftIphone.getHeight()/2+21f);
-            canvas.drawBitmap(mPointerHeart,mCenterX-mPointerHeart.getWidth()/2, mCenterY+mLeftIphone.getHeight()/2-mPointerHeart.getHeight()/2+21f, null);
+            canvas.rotate(angle, pivotX, pivotY);
+            canvas.drawBitmap(bitmap, pivotX - bitmap.getWidth()/2, pivotY - bitmap.getHeight()/2, null);
             canvas.restore();
         }
 
-        //灰色背景
-        private void initGrayBackgroundBitmap() {
-            mGrayBackgroundBitmap = Bitmap.createBitmap(
-                    mBackgroundBitmap.getWidth(),
-                    mBackgroundBitmap.getHeight(),
-                    Bitmap.Config.ARGB_8888);
-            Canvas canvas = new Canvas(mGrayBackgroundBitmap);
-            Paint grayPaint = new Paint();
-//            grayPaint.setAlpha(0);
-            ColorMatrix colorMatrix = new ColorMatrix();
-            colorMatrix.setSaturation(0);
-            ColorMatrixColorFilter filter = new ColorMatrixColorFilter(colorMatrix);
-            grayPaint.setColorFilter(filter);
-            canvas.drawBitmap(mBackgroundBitmap, 0, 0, grayPaint);
+        private void rotateAngelBatIp(Canvas canvas,Bitmap bitmap,float angle){
+            drawRotated(canvas, mPointerAtlas, bitmap, angle,
+                    mCenterX-mLeftIphone.getWidth()/2-21f, mCenterY);
+        }
+        private void rotateAngelBatWat(Canvas canvas,Bitmap bitmap,float angle){
+            drawRotated(canvas, mPointerAtlas, bitmap, angle,
+                    mCenterX+mLeftIphone.getWidth()/2+21f, mCenterY);
+        }
 
-//            initGrayBackgroundBitmapAlpha();
+        private void rotateAngelHeart(Canvas canvas,Bitmap bitmap,float angle){
+            drawRotated(canvas, mPointerAtlas, bitmap, angle,
+                    mCenterX, mCenterY+mLeftIphone.getHeight()/2+21f);
         }
 
+        //灰色背景
         /*private void initGrayBackgroundBitmapAlpha() {
             Canvas canvas = new Canvas(mGrayBackgroundBitmap);
             Paint grayPaint = new Paint();
@@ -610,147 +964,215 @@ public class SeraphimWatchFace extends CanvasWatchFaceService {
             canvas.drawBitmap(mGrayBackgroundBitmap, 0, 0, grayPaint);
         }*/
 
-        //灰色中部圈儿
-        private void initGrayBackgroundCenterBitmap() {
-            mGrayBackgroundCenterBitmap = Bitmap.createBitmap(
-                    mBackgroundCenterBitmap.getWidth(),
-                    mBackgroundCenterBitmap.getHeight(),
-                    Bitmap.Config.ARGB_8888);
-            Canvas canvas = new Canvas(mGrayBackgroundCenterBitmap);
-            Paint grayPaint = new Paint();
-            ColorMatrix colorMatrix = new ColorMatrix();
-            colorMatrix.setSaturation(0);
-            ColorMatrixColorFilter filter = new ColorMatrixColorFilter(colorMatrix);
-            grayPaint.setColorFilter(filter);
-            canvas.drawBitmap(mBackgroundCenterBitmap, 0, 0, grayPaint);
+        /**
+         * Rewrites the day text when the date changes.
+         */
+        private void updateDateText() {
+            int changed = mFormatter.update(mCalendar);
+            if ((changed & CalendarFormatter.FIELD_DAY) == 0) {
+                return;
+            }
+            mDayText.clear().append(mFormatter.getDayText()).append('/');
+            mTextMinutePaint.getTextBounds(mDayText.chars(), 0, mDayText.length(), rect);
+            mDayTextWidth = rect.width();
         }
+
         @Override
         public void onDraw(Canvas canvas, Rect bounds) {
             long now = System.currentTimeMillis();
             mCalendar.setTimeInMillis(now);
-            canvas.setDrawFilter(new PaintFlagsDrawFilter(0, Paint.ANTI_ALIAS_FLAG|Paint.FILTER_BITMAP_FLAG));
-            Log.e(TAG, "onDraw: "+"runing..." );
-            Log.e(TAG, "onDraw--: "+mTemperature+"°" );
-            Log.e(TAG, "onDraw--: "+mPhoneBatteryPercentage);
-//            Log.e(TAG, "onDraw: "+Integer.valueOf(mPhoneBatteryPercentage.substring(0,mPhoneBatteryPercentage.length()-2)));
-            if (mPhoneBatteryPercentage.length()!=0){
-                Log.e(TAG, "onDraw: "+Integer.valueOf(mPhoneBatteryPercentage.substring(0,mPhoneBatteryPercentage.length()))*3.6);
-            }
-//            Log.e(TAG, "onDraw: "+Integer.valueOf(mPhoneBatteryPercentage.substring(0,mPhoneBatteryPercentage.length()-2))*100*3.6);
-            Log.e(TAG, "onDraw--: "+mWatchBatteryPercentage+"%" );
-            //背景
-            if (mAmbient) {
-                canvas.drawBitmap(mGrayBackgroundBitmap, 0, 0, mBackgroundPaint);
+            boolean firstFrame = !mStartupTrace.isFirstFrameDrawn();
+            if (firstFrame) {
+                mStartupTrace.begin(StartupTrace.PHASE_FIRST_DRAW);
+            }
+            if (mReady) {
+                drawMeasuredFrame(canvas, now);
             } else {
-                canvas.drawBitmap(mBackgroundBitmap, 0, 0, mBackgroundPaint);
+                drawStartupFrame(canvas);
             }
+            if (firstFrame) {
+                mStartupTrace.firstFrameDrawn();
+                logStartup("first frame");
+            }
+        }
 
-            float bcWidth = mBackgroundCenterBitmap.getWidth();
-            float bcHeight = mBackgroundCenterBitmap.getHeight();
-
-            /*
-             * These calculations reflect the rotation in degrees per unit of time, e.g.,
-             * 360 / 60 = 6 and 360 / 12 = 30.
-             */
-
-            final float seconds =
-                    (mCalendar.get(Calendar.SECOND) + mCalendar.get(Calendar.MILLISECOND) / 1000f);
-            final float secondsRotation = seconds * 6f;
+        private void drawMeasuredFrame(Canvas canvas, long now) {
+            mFrameMetrics.beginFrame(now, mRedrawScheduler.takeFrameDeadline());
+            updateStaticLayer(now);
+            drawFrame(canvas);
+            mFrameMetrics.endFrame();
+        }
 
+        /**
+         * Stands in for {@link #drawFrame} until the startup task is done: the hour and minute
+         * hands as plain lines, so the time shows right away.
+         */
+        private void drawStartupFrame(Canvas canvas) {
+            canvas.drawColor(Color.BLACK);
             final float minutesRotation = mCalendar.get(Calendar.MINUTE) * 6f;
-
             final float hourHandOffset = mCalendar.get(Calendar.MINUTE) / 2f;
             final float hoursRotation = (mCalendar.get(Calendar.HOUR) * 30) + hourHandOffset;
 
+            canvas.save();
+            canvas.rotate(hoursRotation, mCenterX, mCenterY);
+            canvas.drawLine(mCenterX, mCenterY, mCenterX, mCenterY - sHourHandLength, mHourPaint);
+            canvas.rotate(minutesRotation - hoursRotation, mCenterX, mCenterY);
+            canvas.drawLine(mCenterX, mCenterY, mCenterX, mCenterY - sMinuteHandLength, mMinutePaint);
+            canvas.restore();
+        }
+
+        private void logStartup(String stage) {
+            Log.i(TAG, (STAGED_STARTUP ? "staged" : "blocking") + " startup: " + stage + " after "
+                    + mStartupTrace.getElapsedMillis() + " ms");
+        }
+
+        @Override
+        public void prepareBenchmark(int width, int height) {
+            mFrameMetrics.setEnabled(false);
+            layoutForSize(width, height);
+        }
+
+        @Override
+        public void setBenchmarkMode(int mode) {
+            mAmbient = mode == FrameBenchmark.MODE_AMBIENT;
+            if (mReady) {
+                mResources.setAmbient(mAmbient);
+            }
+            updateWatchHandStyle();
+            setMuteMode(mode == FrameBenchmark.MODE_MUTE);
+        }
+
+        @Override
+        public void drawBenchmarkFrame(Canvas canvas, long now) {
+            mCalendar.setTimeInMillis(now);
+            if (!mReady) {
+                drawStartupFrame(canvas);
+                return;
+            }
+            updateStaticLayer(now);
+            drawFrame(canvas);
+        }
+
+        @Override
+        public void finishBenchmark() {
+            mAmbient = isInAmbientMode();
+            if (mReady) {
+                mResources.setAmbient(mAmbient);
+            }
+            updateWatchHandStyle();
+            setMuteMode(getInterruptionFilter() == WatchFaceService.INTERRUPTION_FILTER_NONE);
+            Rect frame = getSurfaceHolder().getSurfaceFrame();
+            layoutForSize(frame.width(), frame.height());
+            mFrameMetrics.setEnabled(true);
+            invalidate();
+        }
+
+        private void invalidateStaticLayer() {
+            mStaticLayerMinute = -1;
+        }
+
+        /**
+         * Redraws the static layer if the minute changed or it was invalidated.
+         */
+        private void updateStaticLayer(long now) {
+            long minute = now / TimeUnit.MINUTES.toMillis(1);
+            if (minute == mStaticLayerMinute) {
+                return;
+            }
+            mStaticLayerMinute = minute;
+            mFrameMetrics.begin(FrameMetrics.PHASE_STATIC_LAYER);
+            mFrameMetrics.begin(FrameMetrics.PHASE_TEXT);
+            updateDateText();
+            mFrameMetrics.end(FrameMetrics.PHASE_TEXT);
+
+            Canvas canvas = mStaticLayerCanvas;
+            //背景
+            if (mAmbient) {
+                if (mGrayBackgroundBitmap != null) {
+                    canvas.drawBitmap(mGrayBackgroundBitmap, 0, 0, mBackgroundPaint);
+                } else {
+                    /* Burn-in protected screens get no ambient background. */
+                    canvas.drawColor(Color.BLACK);
+                }
+            } else {
+                canvas.drawBitmap(mBackgroundBitmap, 0, 0, mBackgroundPaint);
+            }
+
             if (!mAmbient){
-//update1:
-//                canvas.drawBitmap(mDateTextView,mCenterX-mDateTextView.getWidth()/2,70f,null);
+                float textY = mCenterY-mLeftIphone.getHeight()+mDateTextView.getHeight()*3/4;
                 canvas.drawBitmap(mDateTextView,mCenterX-mDateTextView.getWidth()/2,mCenterY-mLeftIphone.getHeight(),null);
                 // Week
-                String weekStr = mWeekFormat.format(now);
-                mTextWeekPaint.getTextBounds(weekStr,0,weekStr.length(),rect);
-                float weekWidth =rect.width();
-                float weekHeight =rect.height();
                 mTextWeekPaint.setColor(Color.BLACK);
-//update2:
-//                canvas.drawText(weekStr.toUpperCase(), mCenterX - mDateTextView.getWidth()/2+10f, 70f+weekHeight*2+3f , mTextWeekPaint);
-                canvas.drawText(weekStr.toUpperCase(), mCenterX - mDateTextView.getWidth()/2+10f, mCenterY-mLeftIphone.getHeight()+mDateTextView.getHeight()*3/4, mTextWeekPaint);
+                TextBuffer weekText = mFormatter.getWeekdayText();
+                canvas.drawText(weekText.chars(), 0, weekText.length(), mCenterX - mDateTextView.getWidth()/2+10f, textY, mTextWeekPaint);
 
                 // day
-                String dayStr = mDayFormat.format(now)+"/";
-                mTextMinutePaint.getTextBounds(dayStr,0,dayStr.length(),rect);
-                float dayWidth =rect.width();
-                float dayHeight =rect.height();
                 mTextMinutePaint.setColor(Color.BLACK);
-                canvas.drawText(dayStr, mCenterX +3f, mCenterY-mLeftIphone.getHeight()+mDateTextView.getHeight()*3/4, mTextMinutePaint);
-
+                canvas.drawText(mDayText.chars(), 0, mDayText.length(), mCenterX +3f, textY, mTextMinutePaint);
 
                 // month;
-                String monthStr = mMonthFormat.format(now);
-                mTextHourPaint.getTextBounds(monthStr,0,monthStr.length(),rect);
-                float monthWidth =rect.width();
-                float monthHeight =rect.height();
                 mTextHourPaint.setColor(Color.BLACK);
-                canvas.drawText(monthStr, mCenterX+3f+dayWidth , mCenterY-mLeftIphone.getHeight()+mDateTextView.getHeight()*3/4, mTextHourPaint);
+                TextBuffer monthText = mFormatter.getMonthText();
+                canvas.drawText(monthText.chars(), 0, monthText.length(), mCenterX+3f+mDayTextWidth, textY, mTextHourPaint);
 
                 canvas.drawBitmap(mLeftIphone,mCenterX-mLeftIphone.getWidth()-21f,mCenterY-mLeftIphone.getHeight()/2,null);
-//            canvas.drawBitmap(mPointerIphone,mCenterX-mLeftIphone.getWidth()/2-mPointerIphone.getWidth()/2-24f, mCenterY-mPointerIphone.getHeight()/2, null);
-
                 canvas.drawBitmap(mRightWear,mCenterX+21f,mCenterY-mRightWear.getHeight()/2,null);
                 canvas.drawBitmap(mHeart,mCenterX-mHeart.getWidth()/2,mCenterY+21f,null);
+            }
+            mFrameMetrics.end(FrameMetrics.PHASE_STATIC_LAYER);
+        }
+
+        private void drawFrame(Canvas canvas) {
+            canvas.setDrawFilter(mDrawFilter);
+            mFrameMetrics.begin(FrameMetrics.PHASE_BACKGROUND);
+            canvas.drawBitmap(mStaticLayerBitmap, 0, 0, null);
+            mFrameMetrics.end(FrameMetrics.PHASE_BACKGROUND);
+
+            /*
+             * These calculations reflect the rotation in degrees per unit of time, e.g.,
+             * 360 / 60 = 6 and 360 / 12 = 30.
+             */
+
+            final float seconds =
+                    (mCalendar.get(Calendar.SECOND) + mCalendar.get(Calendar.MILLISECOND) / 1000f);
+            final float secondsRotation = seconds * 6f;
+
+            final float minutesRotation = mCalendar.get(Calendar.MINUTE) * 6f;
 
-                if (mPhoneBatteryPercentage.length()!=0){
-                    Log.e(TAG, "onDraw: "+Integer.valueOf(mPhoneBatteryPercentage.substring(0,mPhoneBatteryPercentage.length()))*3.6);
-                    rotateAngelBatIp(canvas, mPointerIphone,Integer.valueOf(mPhoneBatteryPercentage.substring(0,mPhoneBatteryPercentage.length()))*3.6f);
+            final float hourHandOffset = mCalendar.get(Calendar.MINUTE) / 2f;
+            final float hoursRotation = (mCalendar.get(Calendar.HOUR) * 30) + hourHandOffset;
+
+            if (!mAmbient){
+                mFrameMetrics.begin(FrameMetrics.PHASE_GAUGES);
+                if (mPhoneBatteryLevel != NO_VALUE){
+                    rotateAngelBatIp(canvas, mPointerIphone, mPhoneBatteryLevel * 3.6f);
                 }
 
-//            Integer.valueOf(mWatchBatteryPercentage);
-                rotateAngelBatWat(canvas,mPointerWatch,Integer.valueOf(mWatchBatteryPercentage)*3.6f);
+                rotateAngelBatWat(canvas, mPointerWatch, Math.max(mWatchBatteryLevel, 0) * 3.6f);
                 int max=310;
                 int min=280;
-                Random random = new Random();
-                int s = random.nextInt(max)%(max-min+1) + min;
-                Log.e(TAG, "onDraw: "+s );
+                int s = mRandom.nextInt(max)%(max-min+1) + min;
                 rotateAngelHeart(canvas,mPointerHeart,s);
-
+                mFrameMetrics.end(FrameMetrics.PHASE_GAUGES);
             }
 
-            /*
-             * Save the canvas state before we can begin to rotate it.
-             */
-            canvas.save();
-
-            canvas.rotate(hoursRotation, mCenterX, mCenterY);
-            canvas.drawBitmap(mHourBitmap,mCenterX-mHourBitmap.getWidth()/2, mCenterY-mHourBitmap.getHeight()/2, null);
+            mFrameMetrics.begin(FrameMetrics.PHASE_HANDS);
+            drawRotated(canvas, null, mHourBitmap, hoursRotation, mCenterX, mCenterY);
+            drawRotated(canvas, mMinuteAtlas, mMinuteBitmap, minutesRotation, mCenterX, mCenterY);
 
-            canvas.rotate(minutesRotation - hoursRotation, mCenterX, mCenterY);
-            canvas.drawBitmap(mMinuteBitmap,mCenterX-mMinuteBitmap.getWidth()/2, mCenterY-mMinuteBitmap.getHeight()/2, null);
-
-            canvas.restore();
-
-//            rotateAngelBatWat(canvas,mPointerWatch,secondsRotation - minutesRotation);
-            /*canvas.save();
-            canvas.rotate(secondsRotation - minutesRotation, mCenterX-mLeftIphone.getWidth()/2-24f, mCenterY);
-            canvas.drawBitmap(mPointerIphone,mCenterX-mLeftIphone.getWidth()/2-mPointerIphone.getWidth()/2-24f, mCenterY-mPointerIphone.getHeight()/2, null);
-            canvas.restore();*/
-//            rotateAngel(canvas,mPointerIphone,secondsRotation - minutesRotation);
             /*
              * Ensure the "seconds" hand is drawn only when we are in interactive mode.
              * Otherwise, we only update the watch face once a minute.
              */
-            canvas.save();
             if (!mAmbient) {
-                Log.e(TAG, "onDraw: "+"second --- isDrawing" );
-                canvas.rotate(secondsRotation - minutesRotation, mCenterX, mCenterY);
-                canvas.drawBitmap(mSecHandBitmap,mCenterX-mSecHandBitmap.getWidth()/2,mCenterY-mSecHandBitmap.getHeight()/2,null);
-
+                drawRotated(canvas, mSecondAtlas, mSecHandBitmap,
+                        secondsRotation - minutesRotation, mCenterX, mCenterY);
             }
 
-            /* Restore the canvas' original orientation. */
-            canvas.restore();
             canvas.save();
             canvas.drawBitmap(mCenterBitmap,mCenterX,mCenterY,null);
             canvas.restore();
+            mFrameMetrics.end(FrameMetrics.PHASE_HANDS);
 
 
 
@@ -776,13 +1198,16 @@ public class SeraphimWatchFace extends CanvasWatchFaceService {
                 //不可见，则断开；
                 if (mGoogleApiClient.isConnected()) {
                     Wearable.MessageApi.removeListener(mGoogleApiClient, this);
+                    if (PUSH_STATE) {
+                        Wearable.DataApi.removeListener(mGoogleApiClient, this);
+                    }
                     mGoogleApiClient.disconnect();
                 }
                 unregisterReceiver();
             }
 
             /* Check and trigger whether or not timer should be running (only in active mode). */
-            updateTimer();
+            mRedrawScheduler.update();
         }
 
         @Override
@@ -797,6 +1222,7 @@ public class SeraphimWatchFace extends CanvasWatchFaceService {
             }
             mRegisteredTimeZoneReceiver = true;
             IntentFilter filter = new IntentFilter(Intent.ACTION_TIMEZONE_CHANGED);
+            filter.addAction(Intent.ACTION_LOCALE_CHANGED);
             SeraphimWatchFace.this.registerReceiver(mTimeZoneReceiver, filter);
         }
 
@@ -809,49 +1235,34 @@ public class SeraphimWatchFace extends CanvasWatchFaceService {
         }
 
         /**
-         * Starts/stops the {@link #mUpdateTimeHandler} timer based on the state of the watch face.
-         * 系统提供的第二个定时器；
-         */
-        private void updateTimer() {
-
-            mUpdateTimeHandler.removeMessages(MSG_UPDATE_TIME);
-            if (shouldTimerBeRunning()) {
-                Log.i("htht", "我被调用了------发送一直重绘的请求 ");
-                Log.e(TAG, "updateTimer: "+"多久执行一次" );
-                mUpdateTimeHandler.sendEmptyMessage(MSG_UPDATE_TIME);
-            }
-        }
-
-        /**
-         * Returns whether the {@link #mUpdateTimeHandler} timer should be running. The timer
+         * Returns whether the {@link #mRedrawScheduler} should be running. The timer
          * should only run in active mode.
          */
-        private boolean shouldTimerBeRunning() {
+        @Override
+        public boolean shouldTimerBeRunning() {
             return isVisible() && !mAmbient;
         }
 
         /**
-         * Handle updating the time periodically in interactive mode.
+         * The second hand moves every second.
          */
-        private void handleUpdateTimeMessage() {
-            invalidate();
-            if (shouldTimerBeRunning()) {
-                long timeMs = System.currentTimeMillis();
-                long delayMs = INTERACTIVE_UPDATE_RATE_MS
-                        - (timeMs % INTERACTIVE_UPDATE_RATE_MS);
-                mUpdateTimeHandler.sendEmptyMessageDelayed(MSG_UPDATE_TIME, delayMs);
-            }
+        @Override
+        public long getNextRedrawTime(long now) {
+            return RedrawScheduler.nextSecond(now);
         }
+
         //电池广播；sww
         private void updateWatchBatteryPercentage() {
             IntentFilter ifilter = new IntentFilter(Intent.ACTION_BATTERY_CHANGED);
             Intent intent = SeraphimWatchFace.this.registerReceiver(null, ifilter);
-            mWatchBatteryPercentage = String.valueOf(intent.getIntExtra(BatteryManager.EXTRA_LEVEL, 0) );
+            mWatchBatteryLevel = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, 0);
         }
 
         private void requestUpdateFromHandheld() {
             if (System.currentTimeMillis() - HANDHELD_UPDATE_INTERVAL_MS < mLastUpdateRequestTime)
                 return;
+            if (PUSH_STATE && System.currentTimeMillis() - mSnapshotTime < STATE_FRESH_MS)
+                return;
             if (!mGoogleApiClient.isConnected())
                 return;
 
@@ -871,7 +1282,8 @@ public class SeraphimWatchFace extends CanvasWatchFaceService {
                                 break;
                         }
                         if (handheldNodeId != null && mGoogleApiClient.isConnected()) {
-                            Wearable.MessageApi.sendMessage(mGoogleApiClient, handheldNodeId, "/seraphim-update-request", null);
+                            Wearable.MessageApi.sendMessage(mGoogleApiClient, handheldNodeId, "/seraphim-update-request", mUpdateRequest);
+                            mUpdateRequestsSent++;
                             mLastUpdateRequestTime = System.currentTimeMillis();
                         }
                     }
@@ -879,39 +1291,86 @@ public class SeraphimWatchFace extends CanvasWatchFaceService {
             });
         }
 
+        /**
+         * Reads the state the handheld last published, which Wear keeps locally, and only asks
+         * the handheld if there is none or it is stale.
+         */
+        private void loadPushedState() {
+            Uri uri = new Uri.Builder().scheme(PutDataRequest.WEAR_URI_SCHEME).path(STATE_PATH).build();
+            Wearable.DataApi.getDataItems(mGoogleApiClient, uri)
+                    .setResultCallback(new ResultCallback<DataItemBuffer>() {
+                        @Override
+                        public void onResult(DataItemBuffer dataItems) {
+                            if (dataItems.getStatus().isSuccess()) {
+                                for (DataItem item : dataItems) {
+                                    applySnapshot(item.getData());
+                                }
+                            }
+                            dataItems.release();
+                            mRedrawScheduler.onDataChanged();
+                            requestUpdateFromHandheld();
+                        }
+                    });
+        }
+
+        @Override
+        public void onDataChanged(DataEventBuffer dataEvents) {
+            for (DataEvent event : dataEvents) {
+                if (event.getType() == DataEvent.TYPE_CHANGED
+                        && STATE_PATH.equals(event.getDataItem().getUri().getPath())) {
+                    mStateItemsReceived++;
+                    applySnapshot(event.getDataItem().getData());
+                }
+            }
+            mRedrawScheduler.onDataChanged();
+        }
+
         @Override
         public void onMessageReceived(MessageEvent messageEvent) {
+            mUpdateMessagesReceived++;
+            if (messageEvent.getPath().equals(SeraphimSnapshot.PATH)) {
+                applySnapshot(messageEvent.getData());
+            }
+            // Handhelds that predate snapshots still answer with these.
             if (messageEvent.getPath().equals("/seraphim-update-phonebattery")) {
-                mPhoneBatteryPercentage = new String(messageEvent.getData());
+                mPhoneBatteryLevel = SeraphimSnapshot.parseLegacyValue(messageEvent.getData(),
+                        mPhoneBatteryLevel);
             }
             if (messageEvent.getPath().equals("/seraphim-update-temperature")) {
-                mTemperature = new String(messageEvent.getData());
+                // The handheld appends a "°" to the value; parsing stops at the first non-digit.
+                int temperature = SeraphimSnapshot.parseLegacyValue(messageEvent.getData(),
+                        Integer.MIN_VALUE);
+                if (temperature != Integer.MIN_VALUE) {
+                    mTemperature = temperature;
+                    mHasTemperature = true;
+                }
             }
+            mRedrawScheduler.onDataChanged();
         }
 
-
-    }
-
-    private static class EngineHandler extends Handler {
-        private final WeakReference<SeraphimWatchFace.Engine> mWeakReference;
-
-        public EngineHandler(SeraphimWatchFace.Engine reference) {
-            mWeakReference = new WeakReference<>(reference);
-        }
-
-        @Override
-        public void handleMessage(Message msg) {
-            SeraphimWatchFace.Engine engine = mWeakReference.get();
-            if (engine != null) {
-                switch (msg.what) {
-                    case MSG_UPDATE_TIME:
-                        engine.handleUpdateTimeMessage();
-                        break;
-                }
+        /**
+         * Takes the values a {@link SeraphimSnapshot} carries, reading them straight from the
+         * message payload. Snapshots older than the last one applied are dropped.
+         */
+        private void applySnapshot(byte[] data) {
+            if (!SeraphimSnapshot.isValid(data)) {
+                Log.w(TAG, "applySnapshot: unknown snapshot version");
+                return;
+            }
+            long time = SeraphimSnapshot.getTimestamp(data);
+            if (time < mSnapshotTime) {
+                return;
+            }
+            mSnapshotTime = time;
+            if (SeraphimSnapshot.hasBattery(data)) {
+                mPhoneBatteryLevel = SeraphimSnapshot.getBatteryLevel(data);
+            }
+            if (SeraphimSnapshot.hasTemperature(data)) {
+                mTemperature = Math.round(SeraphimSnapshot.getTemperatureTenths(data) / 10f);
+                mHasTemperature = true;
             }
         }
-    }
-
 
 
+    }
 }
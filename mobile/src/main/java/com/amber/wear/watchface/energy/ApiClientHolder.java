@@ -0,0 +1,180 @@
+package com.amber.wear.watchface.energy;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.location.LocationServices;
+import com.google.android.gms.wearable.Wearable;
+
+import java.io.PrintWriter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One GoogleApiClient with the Wearable and LocationServices APIs, shared by every request in the
+ * process instead of connecting and disconnecting a new one each time.
+ * <p>
+ * The client stays connected for {@value #IDLE_TIMEOUT_MS} ms after the last user is done. After
+ * a failed connect, callers get null without trying again until a backoff of 1 s, doubling up to
+ * 5 minutes, has passed. Request latency is kept separately for requests that found the client
+ * connected (warm) and those that had to connect (cold), for the service dump.
+ */
+class ApiClientHolder {
+    private static final String TAG = "sww_ApiClientHolder";
+
+    private static final long IDLE_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(2);
+    private static final long CONNECT_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(10);
+    private static final long MIN_BACKOFF_MS = TimeUnit.SECONDS.toMillis(1);
+    private static final long MAX_BACKOFF_MS = TimeUnit.MINUTES.toMillis(5);
+
+    private static ApiClientHolder sInstance;
+
+    private final GoogleApiClient mClient;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mIdleDisconnect = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (ApiClientHolder.this) {
+                if (mUsers == 0 && mClient.isConnected()) {
+                    Log.i(TAG, "idle, disconnecting");
+                    mClient.disconnect();
+                }
+            }
+        }
+    };
+
+    private int mUsers;
+    /* Whether a thread is in blockingConnect; others wait on this holder for it. */
+    private boolean mConnecting;
+    private int mFailures;
+    private long mRetryAtRealtime;
+
+    private final Latency mWarm = new Latency();
+    private final Latency mCold = new Latency();
+
+    private ApiClientHolder(Context context) {
+        mClient = new GoogleApiClient.Builder(context)
+                .addApi(Wearable.API)
+                .addApi(LocationServices.API)
+                .build();
+    }
+
+    static synchronized ApiClientHolder getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ApiClientHolder(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns the connected client, connecting it if needed; blocks, so not on the main thread.
+     * Every non-null result must be followed by {@link #release()}.
+     * <p>
+     * The connect itself runs without the lock held, so the idle disconnect on the main thread
+     * never waits for it. Callers arriving meanwhile wait for its result.
+     *
+     * @return null if connecting failed now or recently
+     */
+    GoogleApiClient connect() {
+        synchronized (this) {
+            mHandler.removeCallbacks(mIdleDisconnect);
+            /* Counted from here on, so an idle disconnect already running leaves the client be. */
+            mUsers++;
+            while (mConnecting) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    mUsers--;
+                    return null;
+                }
+            }
+            if (mClient.isConnected()) {
+                return mClient;
+            }
+            if (SystemClock.elapsedRealtime() < mRetryAtRealtime) {
+                mUsers--;
+                return null;
+            }
+            mConnecting = true;
+        }
+
+        ConnectionResult result = null;
+        try {
+            result = mClient.blockingConnect(CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } finally {
+            synchronized (this) {
+                mConnecting = false;
+                notifyAll();
+                if (result == null || !result.isSuccess()) {
+                    mFailures++;
+                    long backoff = Math.min(MAX_BACKOFF_MS,
+                            MIN_BACKOFF_MS << Math.min(mFailures - 1, 20));
+                    mRetryAtRealtime = SystemClock.elapsedRealtime() + backoff;
+                    Log.w(TAG, "connect failed ("
+                            + (result != null ? result.getErrorCode() : "exception")
+                            + "), retry in " + backoff + " ms");
+                    /* Nothing to disconnect, so no idle disconnect either. */
+                    mUsers--;
+                } else {
+                    mFailures = 0;
+                }
+            }
+        }
+        return result.isSuccess() ? mClient : null;
+    }
+
+    synchronized void release() {
+        if (--mUsers == 0) {
+            mHandler.postDelayed(mIdleDisconnect, IDLE_TIMEOUT_MS);
+        }
+    }
+
+    synchronized boolean isConnected() {
+        return mClient.isConnected();
+    }
+
+    /**
+     * Records how long a request took from arrival to answer.
+     *
+     * @param warm whether the client was connected when the request arrived
+     */
+    synchronized void recordRequest(boolean warm, long nanos) {
+        (warm ? mWarm : mCold).record(nanos);
+        Log.i(TAG, (warm ? "warm" : "cold") + " request took "
+                + TimeUnit.NANOSECONDS.toMillis(nanos) + " ms");
+    }
+
+    synchronized void dump(PrintWriter writer) {
+        writer.println("api client: " + (mClient.isConnected() ? "connected" : "disconnected")
+                + ", " + mUsers + " users, " + mFailures + " failures in a row");
+        mWarm.dump(writer, "warm requests");
+        mCold.dump(writer, "cold requests");
+    }
+
+    private static class Latency {
+        private int mCount;
+        private long mTotalNanos;
+        private long mMaxNanos;
+
+        void record(long nanos) {
+            mCount++;
+            mTotalNanos += nanos;
+            mMaxNanos = Math.max(mMaxNanos, nanos);
+        }
+
+        void dump(PrintWriter writer, String name) {
+            if (mCount == 0) {
+                writer.println("  " + name + ": none");
+                return;
+            }
+            writer.println("  " + name + ": n=" + mCount
+                    + " mean=" + TimeUnit.NANOSECONDS.toMillis(mTotalNanos / mCount) + " ms"
+                    + " max=" + TimeUnit.NANOSECONDS.toMillis(mMaxNanos) + " ms");
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.amber.wear.watchface.energy;
+
+import com.android.volley.Cache;
+import com.android.volley.NetworkResponse;
+import com.android.volley.Response;
+import com.android.volley.toolbox.HttpHeaderParser;
+import com.android.volley.toolbox.JsonObjectRequest;
+
+import org.json.JSONObject;
+
+/**
+ * A JSON GET whose response is served from Volley's cache for at least a given time, even if the
+ * server's cache headers allow less or forbid caching. Longer max-age or Expires headers still
+ * win.
+ */
+class FreshJsonObjectRequest extends JsonObjectRequest {
+    private final long mMinFreshMs;
+
+    FreshJsonObjectRequest(String url, long minFreshMs,
+            Response.Listener<JSONObject> listener, Response.ErrorListener errorListener) {
+        super(Method.GET, url, (JSONObject) null, listener, errorListener);
+        mMinFreshMs = minFreshMs;
+    }
+
+    @Override
+    protected Response<JSONObject> parseNetworkResponse(NetworkResponse response) {
+        Response<JSONObject> parsed = super.parseNetworkResponse(response);
+        if (!parsed.isSuccess()) {
+            return parsed;
+        }
+        Cache.Entry entry = parsed.cacheEntry;
+        if (entry == null) {
+            // no-cache or no-store; keep it anyway
+            entry = new Cache.Entry();
+            entry.data = response.data;
+            entry.etag = response.headers.get("ETag");
+            entry.responseHeaders = response.headers;
+            String date = response.headers.get("Date");
+            if (date != null) {
+                entry.serverDate = HttpHeaderParser.parseDateAsEpoch(date);
+            }
+        }
+        long freshUntil = System.currentTimeMillis() + mMinFreshMs;
+        entry.softTtl = Math.max(entry.softTtl, freshUntil);
+        entry.ttl = Math.max(entry.ttl, entry.softTtl);
+        return Response.success(parsed.result, entry);
+    }
+}
@@ -0,0 +1,104 @@
+package com.amber.wear.watchface.energy;
+
+import android.Manifest;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageManager;
+import android.location.Location;
+import android.os.BatteryManager;
+import android.support.v4.app.ActivityCompat;
+
+import com.amber.wear.watchface.common.SeraphimSnapshot;
+import com.android.volley.toolbox.RequestFuture;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.location.LocationServices;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The values the watch shows from the handheld, read at one point in time.
+ */
+class HandheldState {
+    /* How long a weather answer is reused from the HTTP cache at least, whatever its headers say. */
+    static final long WEATHER_MIN_FRESH_MS = TimeUnit.MINUTES.toMillis(10);
+
+    final int batteryLevel;
+    /* Degrees Celsius, or null if unknown. */
+    final Double temperature;
+    final long time;
+
+    HandheldState(int batteryLevel, Double temperature, long time) {
+        this.batteryLevel = batteryLevel;
+        this.temperature = temperature;
+        this.time = time;
+    }
+
+    /**
+     * Reads the battery and fetches the temperature; blocks for up to 10 seconds on the network.
+     *
+     * @param googleApiClient connected, with the LocationServices API
+     */
+    static HandheldState read(Context context, GoogleApiClient googleApiClient) {
+        return new HandheldState(getBatteryLevel(context),
+                getTemperature(context, googleApiClient), System.currentTimeMillis());
+    }
+
+    byte[] toSnapshot() {
+        int flags = SeraphimSnapshot.FLAG_BATTERY;
+        int temperatureTenths = 0;
+        if (temperature != null) {
+            flags |= SeraphimSnapshot.FLAG_TEMPERATURE;
+            temperatureTenths = (int) Math.round(temperature * 10);
+        }
+        return SeraphimSnapshot.encode(flags, batteryLevel, temperatureTenths, time);
+    }
+
+    //获取手机电池百分比；
+    static int getBatteryLevel(Context context) {
+        IntentFilter ifilter = new IntentFilter(Intent.ACTION_BATTERY_CHANGED);
+        Intent intent = context.registerReceiver(null, ifilter);
+        return intent.getIntExtra(BatteryManager.EXTRA_LEVEL, 0);
+    }
+
+    /**
+     * Returns the temperature in degrees Celsius at the last known location, or null if there is
+     * no location permission, no location or no answer.
+     */
+    static Double getTemperature(Context context, GoogleApiClient googleApiClient) {
+        if (ActivityCompat.checkSelfPermission(context, Manifest.permission.ACCESS_COARSE_LOCATION) != PackageManager.PERMISSION_GRANTED)
+            return null;
+        Location lastLoc = LocationServices.FusedLocationApi.getLastLocation(googleApiClient);
+        if (lastLoc == null)
+            return null;
+        final Context appContext = context.getApplicationContext();
+        return WeatherCache.getInstance(context).getTemperature(lastLoc,
+                new WeatherCache.Fetcher() {
+                    @Override
+                    public Double fetch(Location location) {
+                        return fetchTemperature(appContext, location);
+                    }
+                });
+    }
+
+    //获取当前天气温度；
+    private static Double fetchTemperature(Context context, Location loc) {
+        String url = "http://api.openweathermap.org/data/2.5/weather?lat=" + loc.getLatitude()
+                + "&lon=" + loc.getLongitude()
+                + "&units=metric&appid=ee28eedf3a25bd3b820a06a65e453b73";
+        RequestFuture<JSONObject> future = RequestFuture.newFuture();
+        SharedRequestQueue.get(context).add(
+                new FreshJsonObjectRequest(url, WEATHER_MIN_FRESH_MS, future, future));
+        try {
+            JSONObject response = future.get(10, TimeUnit.SECONDS);
+            return response.getJSONObject("main").getDouble("temp");
+        } catch (InterruptedException | TimeoutException | ExecutionException | JSONException e) {
+            return null;
+        }
+    }
+}
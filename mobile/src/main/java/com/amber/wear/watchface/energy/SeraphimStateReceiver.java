@@ -0,0 +1,22 @@
+package com.amber.wear.watchface.energy;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+/**
+ * Keeps {@link SeraphimStateService} running: sets its alarm again after a reboot or an update,
+ * and checks right away when the charger is plugged or the battery runs low, as the level moves
+ * faster or matters more then.
+ */
+public class SeraphimStateReceiver extends BroadcastReceiver {
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        String action = intent.getAction();
+        if (Intent.ACTION_BOOT_COMPLETED.equals(action)
+                || Intent.ACTION_MY_PACKAGE_REPLACED.equals(action)) {
+            SeraphimStateService.schedule(context);
+        }
+        SeraphimStateService.check(context);
+    }
+}
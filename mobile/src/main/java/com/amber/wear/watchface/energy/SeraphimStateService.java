@@ -0,0 +1,169 @@
+package com.amber.wear.watchface.energy;
+
+import android.app.AlarmManager;
+import android.app.IntentService;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.wearable.CapabilityApi;
+import com.google.android.gms.wearable.DataApi;
+import com.google.android.gms.wearable.PutDataRequest;
+import com.google.android.gms.wearable.Wearable;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes the handheld state as a SeraphimSnapshot in the {@value #STATE_PATH} DataItem, which
+ * Wear syncs to the watch, instead of waiting for the watch to ask.
+ * <p>
+ * Runs on an inexact alarm and when the power state changes (see {@link SeraphimStateReceiver}),
+ * but only publishes when the battery moved by {@value #BATTERY_DELTA} points, the temperature by
+ * a degree, or nothing was published for an hour, so the watch can tell the state is fresh.
+ * <p>
+ * A check reads the battery first and only connects, locates and fetches the temperature when a
+ * publish is due or the temperature was last read longer ago than the weather cache keeps it.
+ * The alarm is cancelled when no reachable watch runs the face
+ * ({@value #WATCH_FACE_CAPABILITY}); the face's next update request sets it again.
+ */
+public class SeraphimStateService extends IntentService {
+    private static final String TAG = "sww_SeraphimState";
+
+    static final String STATE_PATH = "/seraphim-state";
+
+    /* Advertised by the energy watch face while it is alive. */
+    private static final String WATCH_FACE_CAPABILITY = "seraphim_watch_face";
+
+    private static final long CHECK_INTERVAL_MS = AlarmManager.INTERVAL_FIFTEEN_MINUTES;
+    private static final long HEARTBEAT_MS = TimeUnit.HOURS.toMillis(1);
+    private static final int BATTERY_DELTA = 5;
+    private static final double TEMPERATURE_DELTA = 1;
+
+    private static final String PREFERENCES = "seraphim_state";
+    private static final String KEY_TIME = "time";
+    private static final String KEY_BATTERY = "battery";
+    private static final String KEY_TEMPERATURE = "temperature";
+    private static final String KEY_TEMPERATURE_TIME = "temperatureTime";
+    private static final String KEY_CHECKS = "checks";
+    private static final String KEY_PUBLISHED = "published";
+
+    public SeraphimStateService() {
+        super("SeraphimStateService");
+    }
+
+    /**
+     * Sets the repeating check alarm; replaces an existing one.
+     */
+    static void schedule(Context context) {
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        alarmManager.setInexactRepeating(AlarmManager.ELAPSED_REALTIME,
+                SystemClock.elapsedRealtime() + CHECK_INTERVAL_MS, CHECK_INTERVAL_MS,
+                getCheckIntent(context));
+    }
+
+    /**
+     * Cancels the repeating check alarm.
+     */
+    static void cancel(Context context) {
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        alarmManager.cancel(getCheckIntent(context));
+    }
+
+    /**
+     * Checks the state now and publishes it if it changed enough.
+     */
+    static void check(Context context) {
+        context.startService(new Intent(context, SeraphimStateService.class));
+    }
+
+    private static PendingIntent getCheckIntent(Context context) {
+        return PendingIntent.getService(context, 0,
+                new Intent(context, SeraphimStateService.class), PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        SharedPreferences preferences = getSharedPreferences(PREFERENCES, MODE_PRIVATE);
+        int checks = preferences.getInt(KEY_CHECKS, 0) + 1;
+        int published = preferences.getInt(KEY_PUBLISHED, 0);
+        SharedPreferences.Editor editor = preferences.edit().putInt(KEY_CHECKS, checks);
+
+        long now = System.currentTimeMillis();
+        int batteryLevel = HandheldState.getBatteryLevel(this);
+        boolean due = isPublishDue(preferences, batteryLevel, now);
+        if (!due && now - preferences.getLong(KEY_TEMPERATURE_TIME, 0) < WeatherCache.TTL_MS) {
+            /* The temperature would come from the cache, unchanged. */
+            editor.apply();
+            return;
+        }
+
+        ApiClientHolder holder = ApiClientHolder.getInstance(this);
+        GoogleApiClient googleApiClient = holder.connect();
+        if (googleApiClient == null) {
+            editor.apply();
+            return;
+        }
+
+        try {
+            if (!isWatchFaceReachable(googleApiClient)) {
+                Log.i(TAG, "no watch face reachable, cancelling checks");
+                cancel(this);
+                editor.apply();
+                return;
+            }
+            HandheldState state = new HandheldState(batteryLevel,
+                    HandheldState.getTemperature(this, googleApiClient), now);
+            editor.putLong(KEY_TEMPERATURE_TIME, now);
+            if (due || isTemperatureChanged(preferences, state.temperature)) {
+                PutDataRequest request =
+                        PutDataRequest.create(STATE_PATH).setData(state.toSnapshot());
+                DataApi.DataItemResult result = Wearable.DataApi
+                        .putDataItem(googleApiClient, request).await(10, TimeUnit.SECONDS);
+                if (result.getStatus().isSuccess()) {
+                    published++;
+                    editor.putLong(KEY_TIME, state.time)
+                            .putInt(KEY_BATTERY, state.batteryLevel)
+                            .putInt(KEY_PUBLISHED, published);
+                    if (state.temperature != null) {
+                        editor.putFloat(KEY_TEMPERATURE, state.temperature.floatValue());
+                    } else {
+                        editor.remove(KEY_TEMPERATURE);
+                    }
+                }
+            }
+            editor.apply();
+            Log.i(TAG, "published " + published + " of " + checks + " checks");
+        } finally {
+            holder.release();
+        }
+    }
+
+    /**
+     * Whether a node running the watch face is reachable; true if that can't be told.
+     */
+    private static boolean isWatchFaceReachable(GoogleApiClient googleApiClient) {
+        CapabilityApi.GetCapabilityResult result = Wearable.CapabilityApi
+                .getCapability(googleApiClient, WATCH_FACE_CAPABILITY,
+                        CapabilityApi.FILTER_REACHABLE)
+                .await(10, TimeUnit.SECONDS);
+        return !result.getStatus().isSuccess() || !result.getCapability().getNodes().isEmpty();
+    }
+
+    private static boolean isPublishDue(SharedPreferences last, int batteryLevel, long now) {
+        return now - last.getLong(KEY_TIME, 0) >= HEARTBEAT_MS
+                || Math.abs(batteryLevel - last.getInt(KEY_BATTERY, 0)) >= BATTERY_DELTA;
+    }
+
+    private static boolean isTemperatureChanged(SharedPreferences last, Double temperature) {
+        boolean hadTemperature = last.contains(KEY_TEMPERATURE);
+        if (hadTemperature != (temperature != null)) {
+            return true;
+        }
+        return hadTemperature && Math.abs(temperature
+                - last.getFloat(KEY_TEMPERATURE, 0)) >= TEMPERATURE_DELTA;
+    }
+}
@@ -0,0 +1,25 @@
+package com.amber.wear.watchface.energy;
+
+import android.content.Context;
+
+import com.android.volley.RequestQueue;
+import com.android.volley.toolbox.Volley;
+
+/**
+ * The process's one Volley queue. {@link Volley#newRequestQueue} starts four network dispatcher
+ * threads, a cache thread and a disk cache that are never stopped, so it must not be called per
+ * request.
+ */
+class SharedRequestQueue {
+    private static RequestQueue sQueue;
+
+    private SharedRequestQueue() {
+    }
+
+    static synchronized RequestQueue get(Context context) {
+        if (sQueue == null) {
+            sQueue = Volley.newRequestQueue(context.getApplicationContext());
+        }
+        return sQueue;
+    }
+}
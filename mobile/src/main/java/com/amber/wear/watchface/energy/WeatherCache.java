@@ -0,0 +1,187 @@
+package com.amber.wear.watchface.energy;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.location.Location;
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Temperatures by location cell, so a phone that hasn't left its cell is answered from here
+ * instead of asking the weather service again.
+ * <p>
+ * A cell is the geohash of the location at {@value #CELL_PRECISION} characters, about 5 km by
+ * 5 km at the equator and narrower towards the poles. Answers are kept for {@value #TTL_MS} ms in
+ * shared preferences, so they outlive the process. Lookups are counted and timed, separately for
+ * hits and for misses (which include the fetch), for the service dump.
+ */
+class WeatherCache {
+    private static final String TAG = "sww_WeatherCache";
+    private static final String PREFERENCES = "weather_cache";
+
+    private static final int CELL_PRECISION = 5;
+    static final long TTL_MS = TimeUnit.MINUTES.toMillis(30);
+    private static final String BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz";
+
+    private static WeatherCache sInstance;
+
+    private final SharedPreferences mPreferences;
+
+    private int mHits;
+    private long mHitNanos;
+    private int mMisses;
+    private long mMissNanos;
+
+    private WeatherCache(Context context) {
+        mPreferences = context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+    }
+
+    static synchronized WeatherCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new WeatherCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns the temperature at {@code location}, from the cache if its cell has a fresh one and
+     * from {@code fetcher} otherwise.
+     *
+     * @return degrees Celsius, or null if not cached and the fetch failed
+     */
+    Double getTemperature(Location location, Fetcher fetcher) {
+        long start = System.nanoTime();
+        String cell = getCell(location.getLatitude(), location.getLongitude(), CELL_PRECISION);
+        Double temperature = get(cell);
+        if (temperature != null) {
+            record(true, System.nanoTime() - start);
+            return temperature;
+        }
+        temperature = fetcher.fetch(location);
+        if (temperature != null) {
+            put(cell, temperature);
+        }
+        record(false, System.nanoTime() - start);
+        return temperature;
+    }
+
+    interface Fetcher {
+        /**
+         * @return degrees Celsius, or null
+         */
+        Double fetch(Location location);
+    }
+
+    /**
+     * The geohash of a location, {@code precision} characters long.
+     */
+    static String getCell(double latitude, double longitude, int precision) {
+        double minLat = -90, maxLat = 90;
+        double minLon = -180, maxLon = 180;
+        StringBuilder hash = new StringBuilder(precision);
+        boolean even = true;
+        int bit = 0;
+        int ch = 0;
+        while (hash.length() < precision) {
+            // Bits alternate between longitude and latitude, longitude first.
+            if (even) {
+                double mid = (minLon + maxLon) / 2;
+                if (longitude >= mid) {
+                    ch = (ch << 1) | 1;
+                    minLon = mid;
+                } else {
+                    ch <<= 1;
+                    maxLon = mid;
+                }
+            } else {
+                double mid = (minLat + maxLat) / 2;
+                if (latitude >= mid) {
+                    ch = (ch << 1) | 1;
+                    minLat = mid;
+                } else {
+                    ch <<= 1;
+                    maxLat = mid;
+                }
+            }
+            even = !even;
+            if (++bit == 5) {
+                hash.append(BASE32.charAt(ch));
+                bit = 0;
+                ch = 0;
+            }
+        }
+        return hash.toString();
+    }
+
+    /* Entries are "<time ms>,<degrees>". */
+    private synchronized Double get(String cell) {
+        String entry = mPreferences.getString(cell, null);
+        if (entry == null) {
+            return null;
+        }
+        int comma = entry.indexOf(',');
+        try {
+            long time = Long.parseLong(entry.substring(0, comma));
+            long age = System.currentTimeMillis() - time;
+            if (age < 0 || age >= TTL_MS) {
+                return null;
+            }
+            return Double.parseDouble(entry.substring(comma + 1));
+        } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    private synchronized void put(String cell, double temperature) {
+        long now = System.currentTimeMillis();
+        SharedPreferences.Editor editor = mPreferences.edit();
+        // Drop cells that have expired, so cells once passed through don't pile up.
+        for (Map.Entry<String, ?> entry : mPreferences.getAll().entrySet()) {
+            Object value = entry.getValue();
+            if (!(value instanceof String) || isExpired((String) value, now)) {
+                editor.remove(entry.getKey());
+            }
+        }
+        editor.putString(cell, now + "," + temperature).apply();
+    }
+
+    private static boolean isExpired(String entry, long now) {
+        int comma = entry.indexOf(',');
+        try {
+            long age = now - Long.parseLong(entry.substring(0, Math.max(comma, 0)));
+            return age < 0 || age >= TTL_MS;
+        } catch (NumberFormatException e) {
+            return true;
+        }
+    }
+
+    private synchronized void record(boolean hit, long nanos) {
+        if (hit) {
+            mHits++;
+            mHitNanos += nanos;
+        } else {
+            mMisses++;
+            mMissNanos += nanos;
+        }
+        Log.i(TAG, (hit ? "hit" : "miss") + " in "
+                + TimeUnit.NANOSECONDS.toMicros(nanos) + " us, hit rate "
+                + mHits + "/" + (mHits + mMisses));
+    }
+
+    synchronized void dump(PrintWriter writer) {
+        int lookups = mHits + mMisses;
+        writer.println("weather cache: " + mHits + "/" + lookups + " hits"
+                + (lookups > 0 ? " (" + (100 * mHits / lookups) + "%)" : "")
+                + ", " + mPreferences.getAll().size() + " cells");
+        if (mHits > 0) {
+            writer.println("  hits: mean=" + TimeUnit.NANOSECONDS.toMicros(mHitNanos / mHits) + " us");
+        }
+        if (mMisses > 0) {
+            writer.println("  misses: mean="
+                    + TimeUnit.NANOSECONDS.toMillis(mMissNanos / mMisses) + " ms");
+        }
+    }
+}
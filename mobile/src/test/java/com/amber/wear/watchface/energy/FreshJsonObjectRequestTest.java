@@ -0,0 +1,177 @@
+package com.amber.wear.watchface.energy;
+
+import com.android.volley.Cache;
+import com.android.volley.ExecutorDelivery;
+import com.android.volley.NetworkResponse;
+import com.android.volley.RequestQueue;
+import com.android.volley.Response;
+import com.android.volley.toolbox.BasicNetwork;
+import com.android.volley.toolbox.DiskBasedCache;
+import com.android.volley.toolbox.HurlStack;
+import com.android.volley.toolbox.RequestFuture;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs weather requests through a real queue, disk cache and network against a local server
+ * that counts the requests reaching it, and checks how the minimum freshness combines with the
+ * server's Cache-Control headers.
+ */
+public class FreshJsonObjectRequestTest {
+    private static final String BODY = "{\"main\":{\"temp\":21.5}}";
+    private static final long MIN_FRESH_MS = HandheldState.WEATHER_MIN_FRESH_MS;
+    private static final long SECOND_MS = TimeUnit.SECONDS.toMillis(1);
+
+    @Rule
+    public final TemporaryFolder mCacheDir = new TemporaryFolder();
+
+    private MockWebServer mServer;
+    private RequestQueue mQueue;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new MockWebServer();
+        mServer.start();
+        /* Deliver on the network threads; unit tests have no main looper. */
+        Executor direct = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+        mQueue = new RequestQueue(new DiskBasedCache(mCacheDir.getRoot()),
+                new BasicNetwork(new HurlStack()), 1, new ExecutorDelivery(direct));
+        mQueue.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mQueue.stop();
+        mServer.shutdown();
+    }
+
+    @Test
+    public void repeatWithinMinimumIsServedFromCache() throws Exception {
+        mServer.enqueue(weather("no-cache"));
+        String url = mServer.url("/weather").toString();
+
+        assertEquals(21.5, fetch(url, MIN_FRESH_MS), 0);
+        assertEquals(21.5, fetch(url, MIN_FRESH_MS), 0);
+        assertEquals(1, mServer.getRequestCount());
+    }
+
+    @Test
+    public void staleEntryIsRefetched() throws Exception {
+        mServer.enqueue(weather("max-age=0"));
+        mServer.enqueue(weather("max-age=0"));
+        String url = mServer.url("/weather").toString();
+
+        fetch(url, 200);
+        Thread.sleep(400);
+        fetch(url, 200);
+        assertEquals(2, mServer.getRequestCount());
+    }
+
+    @Test
+    public void serverMaxAgeAloneKeepsEntryFresh() throws Exception {
+        mServer.enqueue(weather("max-age=3600"));
+        String url = mServer.url("/weather").toString();
+
+        fetch(url, 0);
+        fetch(url, 0);
+        assertEquals(1, mServer.getRequestCount());
+    }
+
+    @Test
+    public void noCacheIsKeptForMinimum() {
+        long before = System.currentTimeMillis();
+        Cache.Entry entry = parse("no-cache", "\"v1\"");
+        long after = System.currentTimeMillis();
+
+        assertNotNull(entry);
+        assertEquals("\"v1\"", entry.etag);
+        assertBetween(before + MIN_FRESH_MS, entry.softTtl, after + MIN_FRESH_MS);
+        assertEquals(entry.softTtl, entry.ttl);
+    }
+
+    @Test
+    public void shorterMaxAgeIsRaisedToMinimum() {
+        long before = System.currentTimeMillis();
+        Cache.Entry entry = parse("max-age=60", null);
+        long after = System.currentTimeMillis();
+
+        assertBetween(before + MIN_FRESH_MS, entry.softTtl, after + MIN_FRESH_MS);
+        assertEquals(entry.softTtl, entry.ttl);
+    }
+
+    @Test
+    public void longerMaxAgeWins() {
+        long before = System.currentTimeMillis();
+        Cache.Entry entry = parse("max-age=3600", null);
+        long after = System.currentTimeMillis();
+
+        assertBetween(before + 3600 * SECOND_MS, entry.softTtl, after + 3600 * SECOND_MS);
+        assertEquals(entry.softTtl, entry.ttl);
+    }
+
+    @Test
+    public void staleWhileRevalidateOutlivesMinimum() {
+        long before = System.currentTimeMillis();
+        Cache.Entry entry = parse("max-age=60, stale-while-revalidate=3600", null);
+        long after = System.currentTimeMillis();
+
+        /* Fresh for the minimum, then served stale while refreshing until the server's limit. */
+        assertBetween(before + MIN_FRESH_MS, entry.softTtl, after + MIN_FRESH_MS);
+        assertBetween(before + 3660 * SECOND_MS, entry.ttl, after + 3660 * SECOND_MS);
+    }
+
+    private double fetch(String url, long minFreshMs) throws Exception {
+        RequestFuture<JSONObject> future = RequestFuture.newFuture();
+        mQueue.add(new FreshJsonObjectRequest(url, minFreshMs, future, future));
+        return future.get(10, TimeUnit.SECONDS).getJSONObject("main").getDouble("temp");
+    }
+
+    private static MockResponse weather(String cacheControl) {
+        return new MockResponse()
+                .setHeader("Content-Type", "application/json; charset=utf-8")
+                .setHeader("Cache-Control", cacheControl)
+                .setBody(BODY);
+    }
+
+    private static Cache.Entry parse(String cacheControl, String etag) {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Cache-Control", cacheControl);
+        if (etag != null) {
+            headers.put("ETag", etag);
+        }
+        NetworkResponse response = new NetworkResponse(200,
+                BODY.getBytes(Charset.forName("UTF-8")), headers, false);
+        FreshJsonObjectRequest request =
+                new FreshJsonObjectRequest("http://localhost/weather", MIN_FRESH_MS, null, null);
+        Response<JSONObject> parsed = request.parseNetworkResponse(response);
+        assertTrue(parsed.isSuccess());
+        return parsed.cacheEntry;
+    }
+
+    private static void assertBetween(long min, long actual, long max) {
+        assertTrue(actual + " not in [" + min + ", " + max + "]", actual >= min && actual <= max);
+    }
+}
@@ -5,27 +5,32 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Color;
-import android.graphics.ColorMatrix;
-import android.graphics.ColorMatrixColorFilter;
 import android.graphics.Paint;
 import android.graphics.Path;
+import android.graphics.PathMeasure;
 import android.graphics.Rect;
 import android.graphics.Typeface;
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.Message;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
-import android.support.annotation.Size;
 import android.support.wearable.watchface.CanvasWatchFaceService;
 import android.util.Log;
 import android.util.TypedValue;
 import android.view.SurfaceHolder;
 import android.view.WindowInsets;
 
+import com.amber.wear.watchface.common.BitmapLoader;
+import com.amber.wear.watchface.common.BitmapPool;
+import com.amber.wear.watchface.common.CalendarFormatter;
+import com.amber.wear.watchface.common.FrameBenchmark;
+import com.amber.wear.watchface.common.FrameMetrics;
+import com.amber.wear.watchface.common.RedrawScheduler;
+import com.amber.wear.watchface.common.StartupTrace;
+import com.amber.wear.watchface.common.TextBuffer;
+import com.amber.wear.watchface.common.TieredResources;
+import com.amber.wear.watchface.common.TypefaceRegistry;
 import com.amber.weather.watchface.watchfaceyellow.R;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
@@ -37,33 +42,68 @@ import com.google.android.gms.fitness.data.DataType;
 import com.google.android.gms.fitness.data.Field;
 import com.google.android.gms.fitness.result.DailyTotalResult;
 
-import java.lang.ref.WeakReference;
-import java.text.DecimalFormat;
-import java.text.SimpleDateFormat;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.Calendar;
 import java.util.List;
 import java.util.Locale;
 import java.util.TimeZone;
-import java.util.concurrent.TimeUnit;
 
 /**
  * Created by joker on 2017/10/12.
  */
 
 public class MainWatchFaceService extends CanvasWatchFaceService {
-    private static final int MSG_UPDATE_TIME = 0x123;
-    private static final long INTERACTIVE_UPDATE_RATE_MS = TimeUnit.SECONDS.toMillis(1);
+    /*
+     * Keep the seconds ring in a bitmap and add only the newly completed segment each second,
+     * instead of stroking the whole ring every frame.
+     */
+    private static final boolean INCREMENTAL_RING = true;
+
     private int percent;
+    private final FrameMetrics mFrameMetrics = new FrameMetrics("yellow");
+    /* The engine created last, for the redraw counts in the dump. */
+    private volatile Engine mEngine;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mFrameMetrics.registerDumpReceiver(this);
+    }
+
+    @Override
+    public void onDestroy() {
+        mFrameMetrics.unregisterDumpReceiver(this);
+        super.onDestroy();
+    }
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(fd, writer, args);
+        mFrameMetrics.dump(writer);
+        Engine engine = mEngine;
+        if (engine != null) {
+            engine.mRedrawScheduler.dump(writer);
+        }
+        BitmapPool.getInstance().dump(writer);
+        TypefaceRegistry.dump(writer);
+        TieredResources.dumpAll(writer);
+        StartupTrace.dump(this, "yellow", writer, args);
+    }
 
     @Override
     public Engine onCreateEngine() {
-        return new Engine();
+        mEngine = new Engine();
+        return mEngine;
     }
 
     private class Engine extends CanvasWatchFaceService.Engine implements
             GoogleApiClient.ConnectionCallbacks,
             GoogleApiClient.OnConnectionFailedListener,
-            ResultCallback<DailyTotalResult> {
+            ResultCallback<DailyTotalResult>,
+            RedrawScheduler.Client,
+            FrameBenchmark.Target,
+            TieredResources.Client {
         private static final int DEFAULT_HOUR_COLOR = Color.WHITE;
         private final int DEFAULT_BATTERY_TEXT_COLOR = Color.WHITE;
         private final int DEFAULT_WEEK_COLOR = Color.WHITE;
@@ -74,13 +114,19 @@ public class MainWatchFaceService extends CanvasWatchFaceService {
         private final int DEFAULT_BATTERY_INNER_COLOR = yellowCircleColor;
         private final int DEFAULT_YELLOW_AROUND_COLOR = yellowCircleColor;
         private final int DEFAULT_TRANSPARENT_AROUND_COLOR = transparentColor;
-        private Handler mHandler = new InnerHandler(this);
+        private final RedrawScheduler mRedrawScheduler = new RedrawScheduler(this);
+        private BroadcastReceiver mBenchmarkReceiver;
         private boolean mRegisteredTimeZoneReceiver = false;
         private Calendar mCalendar;
         private final BroadcastReceiver mTimeZoneReceiver = new BroadcastReceiver() {
             @Override
             public void onReceive(Context context, Intent intent) {
-                mCalendar.setTimeZone(TimeZone.getDefault());
+                if (Intent.ACTION_LOCALE_CHANGED.equals(intent.getAction())) {
+                    mFormatter.setLocale(Locale.getDefault());
+                } else {
+                    mCalendar.setTimeZone(TimeZone.getDefault());
+                    mFormatter.invalidate();
+                }
                 invalidate();
             }
         };
@@ -90,13 +136,16 @@ public class MainWatchFaceService extends CanvasWatchFaceService {
                 int current = intent.getExtras().getInt("level");// 获得当前电量
                 int total = intent.getExtras().getInt("scale");// 获得总电量
                 percent = current * 100 / total;
+                updateBatteryText();
             }
         };
         private boolean inAmbientMode;
         private boolean screenRound;
         private boolean lowBitAmbient;
         private boolean burnInProtection;
-        private SimpleDateFormat hourAndMin;
+        private CalendarFormatter mFormatter;
+        /* "hh:mm" */
+        private final TextBuffer hourAndMin = new TextBuffer(5);
         private Paint yellowAroundPaint;
         private Paint transparentAroundPaint;
         private Paint hourAndMinPaint;
@@ -105,17 +154,44 @@ public class MainWatchFaceService extends CanvasWatchFaceService {
         private Paint batteryTextPaint;
         private Paint batteryOuterPaint;
         private Paint batteryInnerPaint;
-        private SimpleDateFormat weekAndMon;
+        /* "EEE - MMM dd" */
+        private final TextBuffer weekAndMon = new TextBuffer(80);
+        /* "100%" and the step count, rewritten when the values change. */
+        private final TextBuffer batteryText = new TextBuffer(4);
+        private final TextBuffer stepsText = new TextBuffer(10);
+        private final Paint.FontMetricsInt batteryFontMetrics = new Paint.FontMetricsInt();
         private Bitmap backgroundBitmap;
         private Bitmap stepBitmap;
         private Bitmap originStepBitmap;
         private Bitmap calendarBitmap;
         private Bitmap originCalendarBitmap;
+        private Bitmap grayStepBitmap;
+        private Bitmap grayCalendarBitmap;
         private final Paint normalPaint = new Paint();
         private int weekAndStepTextDescent;
-        private DecimalFormat decimalFormat;
-        private Path aroundPath = new Path();
-        private Path transparentAroundPath = new Path();
+        /*
+         * The seconds ring for every second of the minute, indexed by Calendar.SECOND (second 0
+         * is the full ring). Rebuilt when the surface size or the bottom inset changes.
+         */
+        private static final int RING_STATES = 60;
+        private final Path[] yellowRingPaths = new Path[RING_STATES];
+        private final Path[] transparentRingPaths = new Path[RING_STATES];
+        /* The part of the yellow ring that is added going into each second. */
+        private final Path[] yellowSegmentPaths = new Path[RING_STATES];
+        private final PathMeasure ringMeasure = new PathMeasure();
+        /* Incremental ring; ringSecond is the state it shows, -1 when it must be redrawn. */
+        private Bitmap ringBitmap;
+        private Canvas ringCanvas;
+        private int ringSecond = -1;
+        /* Surface size the background and ring were last built for. */
+        private int surfaceWidth;
+        private int surfaceHeight;
+        /* Surface width over the background drawable's width. */
+        private float backgroundScale;
+        private TieredResources tieredResources;
+        /* Started as onCreateEngine constructs the engine. */
+        private final StartupTrace startupTrace =
+                new StartupTrace(MainWatchFaceService.this, "yellow");
         /**
          * steps
          */
@@ -129,6 +205,12 @@ public class MainWatchFaceService extends CanvasWatchFaceService {
         public void onCreate(SurfaceHolder holder) {
             super.onCreate(holder);
 
+            for (int i = 0; i < RING_STATES; i++) {
+                yellowRingPaths[i] = new Path();
+                transparentRingPaths[i] = new Path();
+                yellowSegmentPaths[i] = new Path();
+            }
+
             mGoogleApiClient = new GoogleApiClient.Builder(MainWatchFaceService.this)
                     .addConnectionCallbacks(this)
                     .addOnConnectionFailedListener(this)
@@ -138,24 +220,107 @@ public class MainWatchFaceService extends CanvasWatchFaceService {
                     .build();
 
             screenRound = getResources().getConfiguration().isScreenRound();
-            if (screenRound) {
-                backgroundBitmap = BitmapFactory.decodeResource(getResources(), R.drawable.bg_circle);
-            } else {
-                backgroundBitmap = BitmapFactory.decodeResource(getResources(), R.drawable.bg_rectangle);
-            }
-            stepBitmap = BitmapFactory.decodeResource(getResources(), R.drawable.icon_step);
-            calendarBitmap = BitmapFactory.decodeResource(getResources(), R.drawable.icon_calendar);
-
             settingPaints();
-            dateDataFormat();
 
             mCalendar = Calendar.getInstance();
-            decimalFormat = new DecimalFormat("##0.000");
+            mFormatter = new CalendarFormatter(Locale.getDefault(), false);
+            updateBatteryText();
+            updateStepsText();
+
+            tieredResources = new TieredResources(MainWatchFaceService.this, "yellow", this);
+            mBenchmarkReceiver = FrameBenchmark.registerReceiver(MainWatchFaceService.this, "yellow", this);
+        }
+
+        /**
+         * Takes the background, the icons and their gray versions, generated by the build, from
+         * the shared pool, and keeps the incremental ring bitmap for interactive mode. The icons
+         * are drawn at 0.3 of their resource size on every surface.
+         */
+        @Override
+        public long loadTier(int tier) {
+            BitmapPool pool = BitmapPool.getInstance();
+            switch (tier) {
+                case TieredResources.TIER_ALWAYS:
+                    int backgroundId = screenRound ? R.drawable.bg_circle : R.drawable.bg_rectangle;
+                    backgroundBitmap = pool.acquireScaled(getResources(), backgroundId,
+                            backgroundScale, true, BitmapPool.VARIANT_NORMAL);
+                    originStepBitmap = pool.acquireScaled(getResources(), R.drawable.icon_step,
+                            0.3F, false, BitmapPool.VARIANT_NORMAL);
+                    originCalendarBitmap = pool.acquireScaled(getResources(),
+                            R.drawable.icon_calendar, 0.3F, false, BitmapPool.VARIANT_NORMAL);
+                    grayStepBitmap = pool.acquireScaled(getResources(), R.drawable.icon_step,
+                            0.3F, false, BitmapPool.VARIANT_GRAY);
+                    grayCalendarBitmap = pool.acquireScaled(getResources(),
+                            R.drawable.icon_calendar, 0.3F, false, BitmapPool.VARIANT_GRAY);
+                    return TieredResources.getByteCount(backgroundBitmap, originStepBitmap,
+                            originCalendarBitmap, grayStepBitmap, grayCalendarBitmap);
+                case TieredResources.TIER_INTERACTIVE:
+                    if (INCREMENTAL_RING) {
+                        ringBitmap = Bitmap.createBitmap(backgroundBitmap.getWidth(),
+                                backgroundBitmap.getHeight(), Bitmap.Config.ARGB_8888);
+                        ringCanvas = new Canvas(ringBitmap);
+                        ringSecond = -1;
+                    }
+                    return TieredResources.getByteCount(ringBitmap);
+                default:
+                    // ambient draws nothing of its own
+                    return 0;
+            }
+        }
+
+        @Override
+        public void releaseTier(int tier) {
+            BitmapPool pool = BitmapPool.getInstance();
+            switch (tier) {
+                case TieredResources.TIER_ALWAYS:
+                    pool.release(backgroundBitmap);
+                    pool.release(originStepBitmap);
+                    pool.release(originCalendarBitmap);
+                    pool.release(grayStepBitmap);
+                    pool.release(grayCalendarBitmap);
+                    backgroundBitmap = originStepBitmap = originCalendarBitmap = null;
+                    grayStepBitmap = grayCalendarBitmap = null;
+                    break;
+                case TieredResources.TIER_INTERACTIVE:
+                    // the ring falls back to drawing the paths until it is loaded again
+                    if (ringBitmap != null) {
+                        ringBitmap.recycle();
+                        ringBitmap = null;
+                        ringCanvas = null;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private void updateBatteryText() {
+            batteryText.clear().append(percent).append('%');
         }
 
-        private void dateDataFormat() {
-            hourAndMin = new SimpleDateFormat("hh:mm", Locale.getDefault());
-            weekAndMon = new SimpleDateFormat("EEE - MMM dd", Locale.getDefault());
+        private void updateStepsText() {
+            stepsText.clear().append(Math.max(mStepsTotal, 0));
+        }
+
+        /**
+         * Rewrites the hour and date texts whose fields changed since the last frame.
+         */
+        private void updateDateText() {
+            int changed = mFormatter.update(mCalendar);
+            if ((changed & (CalendarFormatter.FIELD_HOUR | CalendarFormatter.FIELD_MINUTE)) != 0) {
+                hourAndMin.clear()
+                        .append(mFormatter.getHourText())
+                        .append(':')
+                        .append(mFormatter.getMinuteText());
+            }
+            if ((changed & (CalendarFormatter.FIELD_DAY | CalendarFormatter.FIELD_MONTH)) != 0) {
+                weekAndMon.clear()
+                        .append(mFormatter.getWeekdayText())
+                        .append(" - ")
+                        .append(mFormatter.getMonthNameText())
+                        .append(' ')
+                        .append(mFormatter.getDayText());
+            }
         }
 
         private void settingPaints() {
@@ -171,7 +336,7 @@ public class MainWatchFaceService extends CanvasWatchFaceService {
             stepPaint.setColor(DEFAULT_STEP_COLOR);
             stepPaint.setAntiAlias(true);
             stepPaint.setTextSize(dp2px(16));
-            stepPaint.setTypeface(Typeface.createFromAsset(getAssets(), "Helvetica LT Narrow Bold.ttf"));
+            stepPaint.setTypeface(loadTypeface("Helvetica LT Narrow Bold.ttf"));
         }
 
         private void settingWeekPaint() {
@@ -180,7 +345,7 @@ public class MainWatchFaceService extends CanvasWatchFaceService {
             weekPaint.setAntiAlias(true);
             weekAndStepTextDescent = weekPaint.getFontMetricsInt().descent;
             weekPaint.setTextSize(dp2px(17));
-            weekPaint.setTypeface(Typeface.createFromAsset(getAssets(), "Helvetica LT Narrow Bold.ttf"));
+            weekPaint.setTypeface(loadTypeface("Helvetica LT Narrow Bold.ttf"));
         }
 
         private void settingBatteryPowerPaint() {
@@ -188,7 +353,7 @@ public class MainWatchFaceService extends CanvasWatchFaceService {
             batteryTextPaint.setColor(DEFAULT_BATTERY_TEXT_COLOR);
             batteryTextPaint.setAntiAlias(true);
             batteryTextPaint.setTextSize(dp2px(13));
-            batteryTextPaint.setTypeface(Typeface.createFromAsset(getAssets(), "Helvetica LT Narrow Bold.ttf"));
+            batteryTextPaint.setTypeface(loadTypeface("Helvetica LT Narrow Bold.ttf"));
 
             batteryOuterPaint = new Paint();
             batteryOuterPaint.setColor(DEFAULT_BATTERY_OUTER_COLOR);
@@ -209,7 +374,14 @@ public class MainWatchFaceService extends CanvasWatchFaceService {
             hourAndMinPaint.setTextAlign(Paint.Align.CENTER);
             hourAndMinPaint.setAntiAlias(true);
             hourAndMinPaint.setTextSize(dp2px(30));
-            hourAndMinPaint.setTypeface(Typeface.createFromAsset(getAssets(), "HelveticaNeueLTPro-LtEx.otf"));
+            hourAndMinPaint.setTypeface(loadTypeface("HelveticaNeueLTPro-LtEx.otf"));
+        }
+
+        private Typeface loadTypeface(String path) {
+            startupTrace.begin(StartupTrace.PHASE_TYPEFACE);
+            Typeface typeface = TypefaceRegistry.get(getAssets(), path);
+            startupTrace.end(StartupTrace.PHASE_TYPEFACE);
+            return typeface;
         }
 
         private void settingAroundPaint() {
@@ -250,16 +422,22 @@ public class MainWatchFaceService extends CanvasWatchFaceService {
         @Override
         public void onAmbientModeChanged(boolean inAmbientMode) {
             super.onAmbientModeChanged(inAmbientMode);
+            setAmbientStyle(inAmbientMode);
+            mRedrawScheduler.update();
+        }
+
+        private void setAmbientStyle(boolean inAmbientMode) {
             this.inAmbientMode = inAmbientMode;
+            tieredResources.setAmbient(inAmbientMode);
+            ringSecond = -1;
             changePaintStyle(inAmbientMode);
             changBitmapColor(inAmbientMode);
-            updateTimer();
         }
 
         private void changBitmapColor(boolean inAmbientMode) {
             if (inAmbientMode) {
-                stepBitmap = replaceBitmapColor(stepBitmap);
-                calendarBitmap = replaceBitmapColor(calendarBitmap);
+                stepBitmap = grayStepBitmap;
+                calendarBitmap = grayCalendarBitmap;
             } else {
                 stepBitmap = originStepBitmap;
                 calendarBitmap = originCalendarBitmap;
@@ -314,117 +492,257 @@ public class MainWatchFaceService extends CanvasWatchFaceService {
         @Override
         public void onSurfaceChanged(SurfaceHolder holder, int format, int width, int height) {
             super.onSurfaceChanged(holder, format, width, height);
+            if (width == surfaceWidth && height == surfaceHeight
+                    && tieredResources.isLoaded(TieredResources.TIER_ALWAYS)) {
+                return;
+            }
+            layoutForSize(width, height);
+        }
 
-            float scale = ((float) width) / (float) backgroundBitmap.getWidth();
+        /**
+         * Lays the face out for a {@code width} x {@code height} surface: bitmaps at their drawn
+         * size and the ring paths.
+         */
+        private void layoutForSize(int width, int height) {
+            surfaceWidth = width;
+            surfaceHeight = height;
 
             // background bitmap adjust
-            backgroundBitmap = Bitmap.createScaledBitmap(backgroundBitmap,
-                    (int) (backgroundBitmap.getWidth() * scale),
-                    (int) (backgroundBitmap.getHeight() * scale), true);
+            startupTrace.begin(StartupTrace.PHASE_DECODE);
+            int backgroundId = screenRound ? R.drawable.bg_circle : R.drawable.bg_rectangle;
+            backgroundScale = ((float) width) / (float) BitmapLoader.decodeBounds(getResources(),
+                    backgroundId).outWidth;
+            tieredResources.reload();
+            startupTrace.end(StartupTrace.PHASE_DECODE);
+
+            calendarBitmap = originCalendarBitmap;
+            stepBitmap = originStepBitmap;
+            if (burnInProtection || lowBitAmbient) {
+                calendarBitmap = grayCalendarBitmap;
+                stepBitmap = grayStepBitmap;
+            }
+            startupTrace.begin(StartupTrace.PHASE_SCALE);
+            buildRingPaths();
+            startupTrace.end(StartupTrace.PHASE_SCALE);
+        }
 
-            // calendar bitmap adjust
-            calendarBitmap = originCalendarBitmap = Bitmap.createScaledBitmap(calendarBitmap,
-                    (int) (calendarBitmap.getWidth() * 0.3),
-                    (int) (calendarBitmap.getHeight() * 0.3), true);
+        /**
+         * Precomputes the yellow and transparent ring paths for all 60 seconds, and the
+         * segments the yellow ring grows by between consecutive seconds.
+         */
+        private void buildRingPaths() {
+            if (backgroundBitmap == null) {
+                // insets can arrive before the first surface change
+                return;
+            }
+            int maxHeight = backgroundBitmap.getHeight();
+            int maxWidth = backgroundBitmap.getWidth();
+            for (int second = 0; second < RING_STATES; second++) {
+                float per = second == 0 ? 1F : second / 60F;
+                Path yellowPath = yellowRingPaths[second];
+                Path transparentPath = transparentRingPaths[second];
+                yellowPath.reset();
+                transparentPath.reset();
+                if (screenRound) {
+                    getRoundPath(per, maxHeight, yellowPath, transparentPath);
+                } else {
+                    float width = maxWidth * 0.9F;
+                    getPath(per, maxWidth * 0.05F + width / 2, maxWidth * 0.05F, width, maxWidth * 0.05F,
+                            yellowPath, transparentPath);
+                }
+            }
 
-            // step bitmap adjust
-            stepBitmap = originStepBitmap = Bitmap.createScaledBitmap(stepBitmap,
-                    (int) (stepBitmap.getWidth() * 0.3),
-                    (int) (stepBitmap.getHeight() * 0.3), true);
+            // Every state's yellow path is a prefix of the full ring (second 0).
+            float[] lengths = new float[RING_STATES];
+            for (int second = 0; second < RING_STATES; second++) {
+                lengths[second] = getLength(yellowRingPaths[second]);
+            }
+            for (int second = 0; second < RING_STATES; second++) {
+                float start = second == 1 ? 0F : lengths[(second + RING_STATES - 1) % RING_STATES];
+                // Overlap the previous segment a little so no seam shows between them.
+                Path segment = yellowSegmentPaths[second];
+                segment.reset();
+                getSegment(yellowRingPaths[0], Math.max(start - 1F, 0F), lengths[second], segment);
+            }
+            ringSecond = -1;
+        }
 
-            if (burnInProtection || lowBitAmbient) {
-                calendarBitmap = replaceBitmapColor(calendarBitmap);
-                stepBitmap = replaceBitmapColor(stepBitmap);
+        private float getLength(Path path) {
+            float length = 0F;
+            ringMeasure.setPath(path, false);
+            do {
+                length += ringMeasure.getLength();
+            } while (ringMeasure.nextContour());
+            return length;
+        }
+
+        /**
+         * Like {@link PathMeasure#getSegment} over all contours of {@code path}.
+         */
+        private void getSegment(Path path, float start, float end, Path dst) {
+            float offset = 0F;
+            ringMeasure.setPath(path, false);
+            do {
+                float length = ringMeasure.getLength();
+                if (end > offset && start < offset + length) {
+                    ringMeasure.getSegment(Math.max(start - offset, 0F), Math.min(end - offset, length), dst, true);
+                }
+                offset += length;
+            } while (ringMeasure.nextContour());
+        }
+
+        /**
+         * Brings the ring bitmap to {@code second}: one segment when the ring just grew by a
+         * second, a full redraw at the start of a minute or after a skipped second.
+         */
+        private void updateRingBitmap(int second) {
+            if (second == ringSecond) {
+                return;
+            }
+            if (ringSecond < 0 || second == 1 || second != (ringSecond + 1) % RING_STATES) {
+                ringBitmap.eraseColor(Color.TRANSPARENT);
+                ringCanvas.drawPath(transparentRingPaths[second], transparentAroundPaint);
+                ringCanvas.drawPath(yellowRingPaths[second], yellowAroundPaint);
+            } else {
+                ringCanvas.drawPath(yellowSegmentPaths[second], yellowAroundPaint);
+            }
+            ringSecond = second;
+        }
+
+        private void getRoundPath(float per, int maxHeight, Path aroundPath, Path transparentAroundPath) {
+            int outR = maxHeight / 2;
+            int inR = (int) (outR * 0.95);
+            // left top
+            float v1 = (float) ((Math.sqrt(2) * outR) - Math.sqrt(2 * Math.pow(inR, 2)));
+            // right bottom
+            float v2 = v1 + 1.95F * inR;
+            // black clock
+            if (bottom > 0) {
+                float blackSwap = (float) (Math.acos((outR - bottom) / outR) * 90 / Math.PI);
+
+                transparentAroundPath.addArc(v1, v1, v2, v2, -(270 - blackSwap / 2), 360 - blackSwap);
+                transparentAroundPath.close();
+
+                float currentSwap = per * 360F;
+                float otherSwap = 180F - blackSwap / 2;
+                float per1 = otherSwap / 360F;
+                if (currentSwap <= 180F - blackSwap / 2) {
+                    aroundPath.addArc(v1, v1, v2, v2, -90, currentSwap);
+                } else if (currentSwap > 180F - blackSwap / 2 && currentSwap <= 180F + blackSwap / 2) {
+                    aroundPath.addArc(v1, v1, v2, v2, -90, 180F - blackSwap / 2);
+                    aroundPath.rLineTo(-(float) (((Math.sin(blackSwap) * inR) - 2 * yellowAroundPaint.getStrokeWidth()) * (per - per1) * (360F / blackSwap)), 0);
+                } else {
+                    aroundPath.addArc(v1, v1, v2, v2, -90, 180F - blackSwap / 2);
+                    aroundPath.rLineTo(-(float) ((Math.sin(blackSwap) * inR) - 2 * yellowAroundPaint.getStrokeWidth()), 0);
+                    aroundPath.arcTo(v1, v1, v2, v2, (90F + blackSwap / 2), currentSwap - (180F + blackSwap / 2), true);
+                }
+            } else {
+                aroundPath.addArc(v1, v1, v2, v2, -90F, per * 360F);
+                if (per < 1F) {
+                    transparentAroundPath.addArc(v1, v1, v2, v2, per * 360F - 90F, 360F * (1 - per));
+                }
             }
         }
 
         @Override
         public void onDraw(Canvas canvas, Rect bounds) {
             long now = System.currentTimeMillis();
+            boolean firstFrame = !startupTrace.isFirstFrameDrawn();
+            if (firstFrame) {
+                startupTrace.begin(StartupTrace.PHASE_FIRST_DRAW);
+            }
+            mFrameMetrics.beginFrame(now, mRedrawScheduler.takeFrameDeadline());
+            drawFrame(canvas, now);
+            mFrameMetrics.endFrame();
+            if (firstFrame) {
+                startupTrace.firstFrameDrawn();
+            }
+        }
+
+        @Override
+        public void prepareBenchmark(int width, int height) {
+            mFrameMetrics.setEnabled(false);
+            layoutForSize(width, height);
+        }
+
+        /**
+         * This face has no mute style, so mute mode draws like interactive mode.
+         */
+        @Override
+        public void setBenchmarkMode(int mode) {
+            setAmbientStyle(mode == FrameBenchmark.MODE_AMBIENT);
+        }
+
+        @Override
+        public void drawBenchmarkFrame(Canvas canvas, long now) {
+            drawFrame(canvas, now);
+        }
+
+        @Override
+        public void finishBenchmark() {
+            Rect frame = getSurfaceHolder().getSurfaceFrame();
+            layoutForSize(frame.width(), frame.height());
+            setAmbientStyle(isInAmbientMode());
+            mFrameMetrics.setEnabled(true);
+            invalidate();
+        }
+
+        private void drawFrame(Canvas canvas, long now) {
             mCalendar.setTimeInMillis(now);
-            SimpleDateFormat ss = new SimpleDateFormat("ss", Locale.getDefault());
-            String seconds = ss.format(now);
+            mFrameMetrics.begin(FrameMetrics.PHASE_TEXT);
+            updateDateText();
+            mFrameMetrics.end(FrameMetrics.PHASE_TEXT);
 
             int maxHeight = backgroundBitmap.getHeight();
             int maxWidth = backgroundBitmap.getWidth();
             // 1.draw background
+            mFrameMetrics.begin(FrameMetrics.PHASE_BACKGROUND);
             canvas.drawBitmap(backgroundBitmap, 0, 0, normalPaint);
-            float per = Float.parseFloat(decimalFormat.format(Integer.parseInt(seconds) / 60F));
-            if (per == 0F) {
-                per = 1F;
-            }
-            if (screenRound) {
+            mFrameMetrics.end(FrameMetrics.PHASE_BACKGROUND);
+            if (!inAmbientMode) {
                 // 2.draw around line
-                if (!inAmbientMode) {
-                    int outR = maxHeight / 2;
-                    int inR = (int) (outR * 0.95);
-                    // left top
-                    float v1 = (float) ((Math.sqrt(2) * outR) - Math.sqrt(2 * Math.pow(inR, 2)));
-                    // right bottom
-                    float v2 = v1 + 1.95F * inR;
-                    // black clock
-                    if (bottom > 0) {
-                        float blackSwap = (float) (Math.acos((outR - bottom) / outR) * 90 / Math.PI);
-                        aroundPath.reset();
-                        transparentAroundPath.reset();
-
-                        transparentAroundPath.addArc(v1, v1, v2, v2, -(270 - blackSwap / 2), 360 - blackSwap);
-                        transparentAroundPath.close();
-                        canvas.drawPath(transparentAroundPath, transparentAroundPaint);
-
-                        float currentSwap = per * 360F;
-                        float otherSwap = 180F - blackSwap / 2;
-                        float per1 = otherSwap / 360F;
-                        if (currentSwap <= 180F - blackSwap / 2) {
-                            aroundPath.addArc(v1, v1, v2, v2, -90, currentSwap);
-                        } else if (currentSwap > 180F - blackSwap / 2 && currentSwap <= 180F + blackSwap / 2) {
-                            aroundPath.addArc(v1, v1, v2, v2, -90, 180F - blackSwap / 2);
-                            aroundPath.rLineTo(-(float) (((Math.sin(blackSwap) * inR) - 2 * yellowAroundPaint.getStrokeWidth()) * (per - per1) * (360F / blackSwap)), 0);
-                        } else {
-                            aroundPath.addArc(v1, v1, v2, v2, -90, 180F - blackSwap / 2);
-                            aroundPath.rLineTo(-(float) ((Math.sin(blackSwap) * inR) - 2 * yellowAroundPaint.getStrokeWidth()), 0);
-                            aroundPath.arcTo(v1, v1, v2, v2, (90F + blackSwap / 2), currentSwap - (180F + blackSwap / 2), true);
-                        }
-                        canvas.drawPath(aroundPath, yellowAroundPaint);
-                    } else {
-                        canvas.drawArc(v1, v1, v2, v2, -90F, per * 360F, false, yellowAroundPaint);
-                        canvas.drawArc(v1, v1, v2, v2, per * 360F - 90F, 360F * (1 - per), false, transparentAroundPaint);
-                    }
+                mFrameMetrics.begin(FrameMetrics.PHASE_GAUGES);
+                int second = mCalendar.get(Calendar.SECOND);
+                if (ringBitmap != null) {
+                    updateRingBitmap(second);
+                    canvas.drawBitmap(ringBitmap, 0, 0, null);
+                } else {
+                    canvas.drawPath(transparentRingPaths[second], transparentAroundPaint);
+                    canvas.drawPath(yellowRingPaths[second], yellowAroundPaint);
                 }
+                mFrameMetrics.end(FrameMetrics.PHASE_GAUGES);
+            }
+            mFrameMetrics.begin(FrameMetrics.PHASE_TEXT);
+            if (screenRound) {
                 // 3.draw week and mon
                 canvas.drawBitmap(calendarBitmap, maxWidth / 4F, maxHeight * 0.65F, normalPaint);
                 canvas.drawBitmap(stepBitmap, maxWidth / 4F, maxHeight * 0.65F + calendarBitmap.getHeight() * 1.2F, normalPaint);
-                canvas.drawText(weekAndMon.format(now), maxWidth / 4F + calendarBitmap.getWidth() * 1.5F,
+                canvas.drawText(weekAndMon.chars(), 0, weekAndMon.length(), maxWidth / 4F + calendarBitmap.getWidth() * 1.5F,
                         maxHeight * 0.65F + calendarBitmap.getHeight() - weekAndStepTextDescent * 2,
                         weekPaint);
-                canvas.drawText(String.valueOf(mStepsTotal), maxWidth / 4F + stepBitmap.getWidth() * 1.5F,
+                canvas.drawText(stepsText.chars(), 0, stepsText.length(), maxWidth / 4F + stepBitmap.getWidth() * 1.5F,
                         maxHeight * 0.65F + calendarBitmap.getHeight() + stepBitmap.getHeight(),
                         stepPaint);
             } else {
-                // 2.draw around line
-                if (!inAmbientMode) {
-                    float width = maxWidth * 0.9F;
-                    Path[] paths = getPath(per, maxWidth * 0.05F + width / 2, maxWidth * 0.05F, width, maxWidth * 0.05F);
-                    canvas.drawPath(paths[0], yellowAroundPaint);
-                    canvas.drawPath(paths[1], transparentAroundPaint);
-                }
                 // 3.draw week and mon
                 canvas.drawBitmap(calendarBitmap, maxWidth / 6F, maxHeight * 0.65F, normalPaint);
                 canvas.drawBitmap(stepBitmap, maxWidth / 6F, maxHeight * 0.65F + calendarBitmap.getHeight() * 1.2F, normalPaint);
-                canvas.drawText(weekAndMon.format(now), maxWidth / 6F + calendarBitmap.getWidth() * 1.5F,
+                canvas.drawText(weekAndMon.chars(), 0, weekAndMon.length(), maxWidth / 6F + calendarBitmap.getWidth() * 1.5F,
                         maxHeight * 0.65F + calendarBitmap.getHeight() - weekAndStepTextDescent * 2,
                         weekPaint);
-                canvas.drawText(String.valueOf(mStepsTotal), maxWidth / 6F + stepBitmap.getWidth() * 1.5F,
+                canvas.drawText(stepsText.chars(), 0, stepsText.length(), maxWidth / 6F + stepBitmap.getWidth() * 1.5F,
                         maxHeight * 0.65F + calendarBitmap.getHeight() + stepBitmap.getHeight(),
                         stepPaint);
             }
             // 4.draw battery text
-            canvas.drawText(percent + "%", maxWidth / 2F, maxHeight / 6F, batteryTextPaint);
+            canvas.drawText(batteryText.chars(), 0, batteryText.length(), maxWidth / 2F, maxHeight / 6F, batteryTextPaint);
+            mFrameMetrics.end(FrameMetrics.PHASE_TEXT);
             // 5.draw battery view
-            Paint.FontMetricsInt fontMetricsInt = batteryTextPaint.getFontMetricsInt();
-            int batteryViewMaxHeight = -(fontMetricsInt.bottom + fontMetricsInt.top);
+            mFrameMetrics.begin(FrameMetrics.PHASE_GAUGES);
+            batteryTextPaint.getFontMetricsInt(batteryFontMetrics);
+            int batteryViewMaxHeight = -(batteryFontMetrics.bottom + batteryFontMetrics.top);
             float bottom = maxHeight / 6F;
-            float right = (maxWidth - batteryInnerPaint.measureText(String.valueOf(percent))) / 2F;
+            float right = (maxWidth - batteryInnerPaint.measureText(batteryText.chars(), 0, batteryText.length() - 1)) / 2F;
             float top = bottom - batteryViewMaxHeight;
             float left = right - 0.55F * batteryViewMaxHeight;
             canvas.drawRoundRect(left, top, right, bottom, 1, 1, batteryOuterPaint);
@@ -437,14 +755,15 @@ public class MainWatchFaceService extends CanvasWatchFaceService {
             float innerLeft = left + margin + batteryInnerPaint.getStrokeWidth() / 2F;
             float innerTop = top + margin + batteryInnerPaint.getStrokeWidth() / 2F;
             canvas.drawRect(innerLeft, innerTop + (100 - percent) / 100F * (innerBottom - innerTop), innerRight, innerBottom, batteryInnerPaint);
+            mFrameMetrics.end(FrameMetrics.PHASE_GAUGES);
             // 6.draw hour and min
-            canvas.drawText(hourAndMin.format(now), maxWidth / 2, maxHeight / 3, hourAndMinPaint);
+            mFrameMetrics.begin(FrameMetrics.PHASE_TEXT);
+            canvas.drawText(hourAndMin.chars(), 0, hourAndMin.length(), maxWidth / 2, maxHeight / 3, hourAndMinPaint);
+            mFrameMetrics.end(FrameMetrics.PHASE_TEXT);
         }
 
-        @Size(2)
-        private Path[] getPath(float percentage, float startX, float startY, float length, float margin) {
-            Path yellowPath = new Path();
-            Path transparentPath = new Path();
+        private void getPath(float percentage, float startX, float startY, float length, float margin,
+                Path yellowPath, Path transparentPath) {
             yellowPath.moveTo(startX, startY);
             float right = startX + length / 2;
             float bottom = startY + length;
@@ -500,8 +819,6 @@ public class MainWatchFaceService extends CanvasWatchFaceService {
                 transparentPath.moveTo(margin + (percentage - 0.875F) * length * 4, startY);
                 transparentPath.lineTo(startX, startY);
             }
-
-            return new Path[]{yellowPath, transparentPath};
         }
 
         // Initialize the custom timer
@@ -523,7 +840,7 @@ public class MainWatchFaceService extends CanvasWatchFaceService {
             }
 
             /* Check and trigger whether or not timer should be running (only in active mode). */
-            updateTimer();
+            mRedrawScheduler.update();
         }
 
         private void registerReceiver() {
@@ -532,6 +849,7 @@ public class MainWatchFaceService extends CanvasWatchFaceService {
             }
             mRegisteredTimeZoneReceiver = true;
             IntentFilter timeZoneFilter = new IntentFilter(Intent.ACTION_TIMEZONE_CHANGED);
+            timeZoneFilter.addAction(Intent.ACTION_LOCALE_CHANGED);
             MainWatchFaceService.this.registerReceiver(mTimeZoneReceiver, timeZoneFilter);
             IntentFilter batteryFilter = new IntentFilter(Intent.ACTION_BATTERY_CHANGED);
             MainWatchFaceService.this.registerReceiver(mBatteryReceiver, batteryFilter);
@@ -546,53 +864,38 @@ public class MainWatchFaceService extends CanvasWatchFaceService {
             MainWatchFaceService.this.unregisterReceiver(mBatteryReceiver);
         }
 
-        private void updateTimer() {
-            mHandler.removeMessages(MSG_UPDATE_TIME);
-            if (shouldTimerBeRunning()) {
-                mHandler.sendEmptyMessage(MSG_UPDATE_TIME);
-            }
-        }
-
         /**
-         * Returns whether the {@link #} timer should be running. The timer
+         * Returns whether the {@link #mRedrawScheduler} should be running. The timer
          * should only run in active mode.
          */
-        private boolean shouldTimerBeRunning() {
+        @Override
+        public boolean shouldTimerBeRunning() {
             return isVisible() && !inAmbientMode;
         }
 
         /**
-         * Handle updating the time periodically in interactive mode.
+         * The seconds ring grows every second.
          */
-        private void updateTimeMessage() {
-            invalidate();
-            if (shouldTimerBeRunning()) {
-                long timeMs = System.currentTimeMillis();
-                long delayMs = INTERACTIVE_UPDATE_RATE_MS
-                        - (timeMs % INTERACTIVE_UPDATE_RATE_MS);
-                mHandler.sendEmptyMessageDelayed(MSG_UPDATE_TIME, delayMs);
+        @Override
+        public long getNextRedrawTime(long now) {
+            return RedrawScheduler.nextSecond(now);
+        }
+
+        @Override
+        public void onDestroy() {
+            mRedrawScheduler.stop();
+            if (mEngine == this) {
+                mEngine = null;
             }
+            FrameBenchmark.unregisterReceiver(MainWatchFaceService.this, this, mBenchmarkReceiver);
+            tieredResources.release();
+            super.onDestroy();
         }
 
         private float dp2px(float dp) {
             return TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, dp, getResources().getDisplayMetrics());
         }
 
-        private Bitmap replaceBitmapColor(Bitmap oldBitmap) {
-            int width = oldBitmap.getWidth();
-            int height = oldBitmap.getHeight();
-            Bitmap faceIconGreyBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
-            Canvas canvas = new Canvas(faceIconGreyBitmap);
-            Paint paint = new Paint();
-            ColorMatrix colorMatrix = new ColorMatrix();
-            colorMatrix.setSaturation(0.1F);
-            ColorMatrixColorFilter colorMatrixFilter = new ColorMatrixColorFilter(colorMatrix);
-            paint.setColorFilter(colorMatrixFilter);
-            canvas.drawBitmap(oldBitmap, 0, 0, paint);
-
-            return faceIconGreyBitmap;
-        }
-
         @Override
         public void onConnected(@Nullable Bundle bundle) {
             stepsRequested = false;
@@ -631,6 +934,8 @@ public class MainWatchFaceService extends CanvasWatchFaceService {
                 List<DataPoint> points = dailyTotalResult.getTotal().getDataPoints();
                 if (!points.isEmpty()) {
                     mStepsTotal = points.get(0).getValue(Field.FIELD_STEPS).asInt();
+                    updateStepsText();
+                    mRedrawScheduler.onDataChanged();
                 }
             }
         }
@@ -639,29 +944,7 @@ public class MainWatchFaceService extends CanvasWatchFaceService {
         public void onApplyWindowInsets(WindowInsets insets) {
             super.onApplyWindowInsets(insets);
             bottom = insets.getSystemWindowInsetBottom();
-        }
-    }
-
-
-    private static class InnerHandler extends Handler {
-        private WeakReference<MainWatchFaceService.Engine> weakReference;
-
-        InnerHandler(MainWatchFaceService.Engine engine) {
-            weakReference = new WeakReference<>(engine);
-        }
-
-        @Override
-        public void handleMessage(Message msg) {
-            MainWatchFaceService.Engine engine = weakReference.get();
-            if (engine != null) {
-                switch (msg.what) {
-                    case MSG_UPDATE_TIME:
-                        engine.updateTimeMessage();
-                        break;
-                    default:
-                        break;
-                }
-            }
+            buildRingPaths();
         }
     }
 }